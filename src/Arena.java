@@ -0,0 +1,225 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays many games between two game logics without a display, concurrently on a pool of threads,
+ * e.g. for regression tournaments. The engines swap colors every game.
+ *
+ * Every game and every move with its timing are written to arena-games.csv and arena-moves.csv,
+ * and a summary is printed when all games are done. The engines' own output is discarded.
+ *
+ * A move that isn't valid or an engine throwing an exception loses the game. The time control is
+ * given to engines supporting it, others are only reported when they take longer.
+ *
+ * Every game has new engines, so the transposition tables of GameLogic are kept small, as on the game
+ * server, and the engines are closed when the game ends.
+ *
+ * Usage: java Arena GameLogic1 GameLogic2 [games threads moveMillis1 moveMillis2 cols rows tableBits]
+ */
+public class Arena {
+    // region Fields
+
+    private final String[] engines;
+    private final long[] moveMillis;
+    private final int cols, rows;
+    private final int tableBits;
+
+    // The console, for the progress and the summary
+    private final PrintStream console;
+    private final PrintWriter gamesOut;
+    private final PrintWriter movesOut;
+
+    // Results per engine, guarded by this
+    private final int[] wins = new int[2];
+    private final int[] overtime = new int[2];
+    private final long[] moveNanos = new long[2];
+    private final long[] maxMoveNanos = new long[2];
+    private final int[] moves = new int[2];
+    private int ties;
+    private int played;
+
+    /// endregion
+
+    private Arena(String[] engines, long[] moveMillis, int cols, int rows, int tableBits, PrintStream console) throws IOException {
+        this.engines = engines;
+        this.moveMillis = moveMillis;
+        this.cols = cols;
+        this.rows = rows;
+        this.tableBits = tableBits;
+        this.console = console;
+
+        gamesOut = new PrintWriter(new FileWriter("arena-games.csv"));
+        movesOut = new PrintWriter(new FileWriter("arena-moves.csv"));
+        gamesOut.println("game,player1,player2,winner,plies,moves,reason");
+        movesOut.println("game,ply,player,engine,column,millis");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java Arena GameLogic1 GameLogic2 [games threads moveMillis1 moveMillis2 cols rows tableBits]");
+            System.exit(1);
+        }
+
+        String[] engines = {args[0], args[1]};
+        int games     = args.length >= 3 ? Integer.parseInt(args[2]) : 100;
+        int threads   = args.length >= 4 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        long[] millis = {
+                args.length >= 5 ? Long.parseLong(args[4]) : 1000,
+                args.length >= 6 ? Long.parseLong(args[5]) : 1000
+        };
+        int cols = args.length >= 7 ? Integer.parseInt(args[6]) : 7;
+        int rows = args.length >= 8 ? Integer.parseInt(args[7]) : 6;
+        int tableBits = args.length >= 9 ? Integer.parseInt(args[8]) : 16;
+
+        // Check the engines before silencing them
+        for (String engine : engines)
+            if (ShowGame.parseGameLogicParam(engine) == null)
+                throw new IllegalArgumentException("The arena has no human players");
+
+        PrintStream console = ShowGame.silenceConsole();
+
+        Arena arena = new Arena(engines, millis, cols, rows, tableBits, console);
+        arena.run(games, threads);
+    }
+
+    private void run(int games, int threads) throws Exception {
+        console.println(engines[0] + " vs " + engines[1] + ": " + games + " games on " + threads + " threads");
+        Stopwatch sw = new Stopwatch();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        for (int game = 0; game < games; game++) {
+            final int id = game;
+            futures.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    play(id);
+                }
+            }));
+        }
+
+        for (Future<?> future : futures)
+            future.get();
+        pool.shutdown();
+
+        gamesOut.close();
+        movesOut.close();
+
+        summary(sw.elapsedTime());
+    }
+
+    /**
+     * Play a game, the first engine is player 1 in even games.
+     */
+    private void play(int game) {
+        // Index of the engine playing each player
+        int[] engine = {-1, game % 2, 1 - game % 2};
+        IGameLogic[] players = new IGameLogic[3];
+        StringBuilder moveLog = new StringBuilder();
+        StringBuilder sequence = new StringBuilder();
+
+        // Keeps the board independently of the engines
+        IGameLogic referee = new RandomGameLogic();
+        referee.initializeGame(cols, rows, 1);
+        int[] heights = new int[cols];
+
+        IGameLogic.Winner winner = IGameLogic.Winner.NOT_FINISHED;
+        String reason = "";
+        int player = 1;
+        int ply = 0;
+
+        try {
+            for (int p = 1; p <= 2; p++) {
+                players[p] = ShowGame.parseGameLogicParam(engines[engine[p]]);
+
+                if (players[p] instanceof GameLogic) {
+                    ((GameLogic) players[p]).setTableBits(tableBits);
+                    ((GameLogic) players[p]).setTimeControl(moveMillis[engine[p]], Long.MAX_VALUE);
+                }
+
+                players[p].initializeGame(cols, rows, p);
+            }
+
+            while (winner == IGameLogic.Winner.NOT_FINISHED) {
+                long start = System.nanoTime();
+                int column = players[player].decideNextMove();
+                long nanos = System.nanoTime() - start;
+
+                record(engine[player], nanos);
+                moveLog.append(game).append(',').append(ply).append(',').append(player).append(',')
+                       .append(engines[engine[player]]).append(',').append(column).append(',')
+                       .append(nanos / 1000000).append('\n');
+
+                if (column < 0 || column >= cols || heights[column] == rows) {
+                    reason = "invalid move " + column;
+                    winner = player == 1 ? IGameLogic.Winner.PLAYER2 : IGameLogic.Winner.PLAYER1;
+                    break;
+                }
+
+                heights[column]++;
+                sequence.append(sequence.length() == 0 ? "" : " ").append(column);
+                ply++;
+
+                referee.insertCoin(column, player);
+                players[1].insertCoin(column, player);
+                players[2].insertCoin(column, player);
+
+                winner = referee.gameFinished();
+                player = 3 - player;
+            }
+        } catch (Exception e) {
+            reason = e.toString().replace(',', ';');
+            winner = player == 1 ? IGameLogic.Winner.PLAYER2 : IGameLogic.Winner.PLAYER1;
+        } finally {
+            // Let the engines' threads and tables go with the game
+            for (int p = 1; p <= 2; p++)
+                if (players[p] instanceof GameLogic)
+                    ((GameLogic) players[p]).close();
+        }
+
+        synchronized (this) {
+            if (winner == IGameLogic.Winner.TIE)
+                ties++;
+            else
+                wins[engine[winner == IGameLogic.Winner.PLAYER1 ? 1 : 2]]++;
+            played++;
+
+            gamesOut.println(game + "," + engines[engine[1]] + "," + engines[engine[2]] + "," + winner + "," +
+                    ply + "," + sequence + "," + reason);
+            movesOut.print(moveLog);
+
+            if (played % 10 == 0)
+                console.println(played + " games: " + wins[0] + " - " + wins[1] + " - " + ties);
+        }
+    }
+
+    private synchronized void record(int engine, long nanos) {
+        moves[engine]++;
+        moveNanos[engine] += nanos;
+        maxMoveNanos[engine] = Math.max(maxMoveNanos[engine], nanos);
+
+        if (nanos > moveMillis[engine] * 1000000L)
+            overtime[engine]++;
+    }
+
+    private void summary(double seconds) {
+        console.println();
+        console.println(played + " games in " + seconds + " s");
+        console.println("Engine                         wins  losses  ties   score  avg ms  max ms  overtime");
+
+        for (int i = 0; i < 2; i++) {
+            double score = (wins[i] + ties / 2.0) / Math.max(1, played);
+
+            console.printf("%-30s %5d  %6d  %4d  %5.1f%%  %6.1f  %6d  %8d%n", engines[i], wins[i], wins[1 - i], ties,
+                    100 * score, moveNanos[i] / 1e6 / Math.max(1, moves[i]), maxMoveNanos[i] / 1000000, overtime[i]);
+        }
+    }
+}
@@ -0,0 +1,418 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Benchmarks the search of GameLogic on a fixed set of positions.
+ * First checks the incremental evaluation against a full one in random games.
+ * Then times the primitives of the search, and the moves of JobreMarm and RandomGameLogic,
+ * reporting nanoseconds and bytes allocated per call, and compares boards of a single long
+ * with boards of several longs on the sizes where both apply.
+ * Then searches each position to a fixed depth, reporting nodes, nodes per second and bytes
+ * allocated per node, and fails if the search allocates anything once it is warmed up.
+ * Finally compares the orderings of moves, the drivers of each deepening pass, the
+ * transposition table hit rate in whole games with and without sharing keys between
+ * mirrored positions, and reports how time to depth and nodes per second scale with the
+ * number of threads for each parallel engine.
+ *
+ * Usage: java Benchmark [depth] [maxThreads]
+ */
+public class Benchmark {
+
+    // Positions on a 7x6 board given as the columns played from the empty board
+    private static final String[] POSITIONS = {
+            "",
+            "3",
+            "33",
+            "3324",
+            "3332",
+            "01234560",
+            "33332222",
+            "3243324125",
+    };
+
+    // Calls per primitive and position
+    private static final int ITERATIONS = 1000000;
+    // Moves per position of engines searching to a fixed depth
+    private static final int MOVES = 3;
+    // Keeps the results of the timed calls alive, so they aren't optimised away
+    private static long sink;
+
+    // Board sizes comparing the boards - the first fit in a long, the rest only in several
+    private static final int[][] SIZES = {{7, 6}, {8, 7}, {9, 6}, {8, 8}, {9, 7}, {10, 8}};
+    // Plies counted by perft for each board
+    private static final int PERFT_DEPTH = 7;
+
+    public static void main(String[] args) throws InterruptedException {
+        int depth = args.length >= 1 ? Integer.parseInt(args[0]) : 12;
+        int maxThreads = args.length >= 2 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long totalNodes = 0;
+        long totalTime = 0;
+        boolean allocates = false;
+
+        int mismatches = position("", 1, GameLogic.Engine.LAZY_SMP).verifyEvaluation(1000, 42);
+        StdOut.println("Incremental evaluation differs in " + mismatches + " positions of 1000 random games");
+
+        if (mismatches > 0)
+            System.exit(1);
+
+        primitives(threads, thread);
+        engines(threads, thread);
+        backends(threads, thread);
+
+        StdOut.println();
+        StdOut.println("Searching to depth " + depth);
+
+        for (String position : POSITIONS) {
+            // Warm up, so that JIT compilation doesn't count
+            position(position, 1, GameLogic.Engine.LAZY_SMP).search(depth);
+
+            GameLogic logic = position(position, 1, GameLogic.Engine.LAZY_SMP);
+
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            int move = logic.search(depth);
+            long time = System.nanoTime() - start;
+            bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+            long nodes = logic.nodes();
+            totalNodes += nodes;
+            totalTime += time;
+            allocates |= bytes > 0;
+
+            StdOut.printf("%-12s move %d  %10d nodes  %8.1f ms  %10.0f nodes/s  %6.3f bytes/node%n",
+                    "\"" + position + "\"", move, nodes, time / 1e6, nodes / (time / 1e9), bytes / (double) nodes);
+        }
+
+        StdOut.printf("Total %d nodes in %.1f ms, %.0f nodes/s%n", totalNodes, totalTime / 1e6, totalNodes / (totalTime / 1e9));
+
+        if (allocates) {
+            StdOut.println("The search allocated memory!");
+            System.exit(1);
+        }
+
+        StdOut.println();
+        StdOut.println("Ordering    moves      time to depth        nodes      nodes/s");
+
+        for (GameLogic.Ordering ordering : GameLogic.Ordering.values())
+            orderings(depth, ordering);
+
+        StdOut.println();
+        StdOut.println("Driver      moves      time to depth        nodes");
+
+        for (GameLogic.Driver driver : GameLogic.Driver.values())
+            drivers(depth, driver);
+
+        StdOut.println();
+        StdOut.println("Symmetry   hit rate        nodes");
+
+        games(depth, false);
+        games(depth, true);
+
+        for (GameLogic.Engine engine : GameLogic.Engine.values())
+            scaling(depth, maxThreads, engine);
+    }
+
+    /**
+     * Times each primitive of the search of GameLogic on all positions.
+     */
+    private static void primitives(com.sun.management.ThreadMXBean threads, long thread) {
+        StdOut.println();
+        StdOut.println("Primitive                   ns/op   bytes/op      nodes/s");
+
+        for (int primitive = 0; primitive < GameLogic.PRIMITIVES.length; primitive++) {
+            long time = 0;
+            long bytes = 0;
+
+            for (String position : POSITIONS) {
+                GameLogic logic = position(position, 1, GameLogic.Engine.LAZY_SMP);
+
+                // Warm up, so that JIT compilation doesn't count
+                sink += logic.runPrimitive(primitive, ITERATIONS);
+
+                long allocated = threads.getThreadAllocatedBytes(thread);
+                long start = System.nanoTime();
+                sink += logic.runPrimitive(primitive, ITERATIONS);
+                time += System.nanoTime() - start;
+                bytes += threads.getThreadAllocatedBytes(thread) - allocated;
+            }
+
+            report(GameLogic.PRIMITIVES[primitive], time, bytes, (long) ITERATIONS * POSITIONS.length, 0);
+        }
+    }
+
+    /**
+     * Times the moves of the other engines on all positions. JobreMarm searches to its own cutoff
+     * depth, and its output is discarded.
+     */
+    private static void engines(com.sun.management.ThreadMXBean threads, long thread) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+
+        long[] time = new long[3];
+        long[] bytes = new long[3];
+        long nodes = 0;
+
+        try {
+            for (String position : POSITIONS) {
+                JobreMarm jobreMarm = play(new JobreMarm(), position);
+                RandomGameLogic random = play(new RandomGameLogic(), position);
+
+                for (int round = 0; round < 2; round++) {
+                    // The first round warms up
+                    boolean timed = round == 1;
+
+                    long allocated = threads.getThreadAllocatedBytes(thread);
+                    long start = System.nanoTime();
+                    for (int i = 0; i < MOVES; i++) {
+                        sink += jobreMarm.decideNextMove();
+                        if (timed) nodes += jobreMarm.nodes();
+                    }
+                    if (timed) time[0] += System.nanoTime() - start;
+                    if (timed) bytes[0] += threads.getThreadAllocatedBytes(thread) - allocated;
+
+                    allocated = threads.getThreadAllocatedBytes(thread);
+                    start = System.nanoTime();
+                    for (int i = 0; i < ITERATIONS; i++)
+                        sink += random.decideNextMove();
+                    if (timed) time[1] += System.nanoTime() - start;
+                    if (timed) bytes[1] += threads.getThreadAllocatedBytes(thread) - allocated;
+
+                    allocated = threads.getThreadAllocatedBytes(thread);
+                    start = System.nanoTime();
+                    for (int i = 0; i < ITERATIONS; i++)
+                        sink += random.gameFinished().ordinal();
+                    if (timed) time[2] += System.nanoTime() - start;
+                    if (timed) bytes[2] += threads.getThreadAllocatedBytes(thread) - allocated;
+                }
+            }
+        } finally {
+            System.setOut(out);
+        }
+
+        report("JobreMarm move", time[0], bytes[0], (long) MOVES * POSITIONS.length, nodes);
+        report("RandomGameLogic move", time[1], bytes[1], (long) ITERATIONS * POSITIONS.length, 0);
+        report("RandomGameLogic finished", time[2], bytes[2], (long) ITERATIONS * POSITIONS.length, 0);
+    }
+
+    /**
+     * Times the win and threat checks on all positions and perft from the empty board, with GameLogic
+     * on a board of a single long and on a board of several longs, on each board size.
+     */
+    private static void backends(com.sun.management.ThreadMXBean threads, long thread) throws InterruptedException {
+        StdOut.println();
+        StdOut.println("Board  Backend  hasFourConnected ns/op  threats ns/op  bytes/op  perft(" + PERFT_DEPTH + ") positions/s");
+
+        for (int[] size : SIZES) {
+            if (LongBoard.fits(size[0], size[1]))
+                backend("long", false, size[0], size[1], threads, thread);
+            backend("long[]", true, size[0], size[1], threads, thread);
+        }
+    }
+
+    private static void backend(String name, boolean wide, int width, int height,
+                                com.sun.management.ThreadMXBean threads, long thread) throws InterruptedException {
+        long[] time = new long[2];
+        long bytes = 0;
+
+        for (int primitive = 0; primitive < time.length; primitive++) {
+            for (String position : POSITIONS) {
+                GameLogic logic = backend(wide, width, height, position);
+
+                // Warm up, so that JIT compilation doesn't count
+                sink += logic.runPrimitive(primitive, ITERATIONS);
+
+                long allocated = threads.getThreadAllocatedBytes(thread);
+                long start = System.nanoTime();
+                sink += logic.runPrimitive(primitive, ITERATIONS);
+                time[primitive] += System.nanoTime() - start;
+                bytes += threads.getThreadAllocatedBytes(thread) - allocated;
+            }
+        }
+
+        GameLogic logic = backend(wide, width, height, "");
+        sink += sum(logic.perft(PERFT_DEPTH, 1));
+
+        long start = System.nanoTime();
+        long positions = sum(logic.perft(PERFT_DEPTH, 1));
+        long perft = System.nanoTime() - start;
+
+        long calls = (long) ITERATIONS * POSITIONS.length;
+        StdOut.printf("%-5s  %-7s  %21.1f  %13.1f  %8.3f  %21.0f%n", width + "x" + height, name,
+                time[0] / (double) calls, time[1] / (double) calls, bytes / (2.0 * calls), positions / (perft / 1e9));
+    }
+
+    /**
+     * Sets up the position on a new board of the size, of several longs if wide.
+     */
+    private static GameLogic backend(boolean wide, int width, int height, String moves) {
+        GameLogic logic = new GameLogic();
+        // The table isn't used
+        logic.setTableBits(1);
+        logic.setWide(wide);
+        return play(logic, width, height, moves);
+    }
+
+    private static long sum(long[] counts) {
+        long sum = 0;
+        for (long count : counts)
+            sum += count;
+        return sum;
+    }
+
+    private static void report(String name, long time, long bytes, long calls, long nodes) {
+        StdOut.printf("%-24s  %9.1f  %9.3f  %11s%n", name, time / (double) calls, bytes / (double) calls,
+                nodes > 0 ? String.format("%.0f", nodes / (time / 1e9)) : "");
+    }
+
+    /**
+     * Plays the given position on a game logic of the player to move.
+     */
+    private static <T extends IGameLogic> T play(T logic, String moves) {
+        return play(logic, 7, 6, moves);
+    }
+
+    /**
+     * Plays the given position on a game logic of the player to move, on a board of the given size.
+     */
+    private static <T extends IGameLogic> T play(T logic, int width, int height, String moves) {
+        logic.initializeGame(width, height, moves.length() % 2 + 1);
+
+        for (int i = 0; i < moves.length(); i++)
+            logic.insertCoin(moves.charAt(i) - '0', i % 2 + 1);
+
+        return logic;
+    }
+
+    /**
+     * Searches all positions single threaded with the given ordering of moves.
+     */
+    private static void orderings(int depth, GameLogic.Ordering ordering) {
+        String moves = "";
+        long nodes = 0;
+        long time = 0;
+
+        for (String position : POSITIONS) {
+            GameLogic logic = position(position, 1, GameLogic.Engine.LAZY_SMP);
+            logic.setOrdering(ordering);
+
+            long start = System.nanoTime();
+            moves += logic.search(depth);
+            time += System.nanoTime() - start;
+
+            nodes += logic.nodes();
+        }
+
+        StdOut.printf("%-10s  %-9s  %10.1f ms  %11d  %11.0f%n", ordering, moves, time / 1e6, nodes, nodes / (time / 1e9));
+    }
+
+    /**
+     * Searches all positions single threaded with the given driver.
+     */
+    private static void drivers(int depth, GameLogic.Driver driver) {
+        String moves = "";
+        long nodes = 0;
+        long time = 0;
+
+        for (String position : POSITIONS) {
+            GameLogic logic = position(position, 1, GameLogic.Engine.LAZY_SMP);
+            logic.setDriver(driver);
+
+            long start = System.nanoTime();
+            moves += logic.search(depth);
+            time += System.nanoTime() - start;
+
+            nodes += logic.nodes();
+        }
+
+        StdOut.printf("%-10s  %-9s  %10.1f ms  %11d%n", driver, moves, time / 1e6, nodes);
+    }
+
+    /**
+     * Plays a game from each position with a search to the given depth for both players, and reports
+     * the hit rate of their transposition tables.
+     */
+    private static void games(int depth, boolean symmetry) {
+        long probes = 0;
+        long hits = 0;
+        long nodes = 0;
+
+        for (String position : POSITIONS) {
+            GameLogic[] logics = new GameLogic[3];
+            for (int player = 1; player <= 2; player++) {
+                logics[player] = new GameLogic();
+                logics[player].setSymmetry(symmetry);
+                logics[player].initializeGame(7, 6, player);
+
+                for (int i = 0; i < position.length(); i++)
+                    logics[player].insertCoin(position.charAt(i) - '0', i % 2 + 1);
+            }
+
+            for (int player = position.length() % 2 + 1; logics[1].gameFinished() == IGameLogic.Winner.NOT_FINISHED; player = 3 - player) {
+                GameLogic logic = logics[player];
+                int move = logic.search(depth);
+
+                probes += logic.probes();
+                hits += logic.hits();
+                nodes += logic.nodes();
+
+                logics[1].insertCoin(move, player);
+                logics[2].insertCoin(move, player);
+            }
+        }
+
+        StdOut.printf("%-8s  %8.2f %%  %11d%n", symmetry, 100.0 * hits / probes, nodes);
+    }
+
+    /**
+     * Searches all positions with 1, 2, 4, ... up to the max number of threads.
+     */
+    private static void scaling(int depth, int maxThreads, GameLogic.Engine engine) {
+        StdOut.println();
+        StdOut.println(engine);
+        StdOut.println("Threads  time to depth  speedup      nodes/s");
+
+        double baseTime = 0;
+
+        for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads * 2, maxThreads) : threads + 1) {
+            long nodes = 0;
+            long time = 0;
+
+            for (String position : POSITIONS) {
+                GameLogic logic = position(position, threads, engine);
+
+                long start = System.nanoTime();
+                logic.search(depth);
+                time += System.nanoTime() - start;
+
+                nodes += logic.nodes();
+            }
+
+            if (threads == 1)
+                baseTime = time;
+
+            StdOut.printf("%7d  %10.1f ms  %6.2fx  %11.0f%n", threads, time / 1e6, baseTime / time, nodes / (time / 1e9));
+        }
+    }
+
+    /**
+     * Creates a game logic for the player to move in the given position.
+     */
+    static GameLogic position(String moves, int threads, GameLogic.Engine engine) {
+        GameLogic logic = new GameLogic(threads, engine);
+        logic.initializeGame(7, 6, moves.length() % 2 + 1);
+
+        for (int i = 0; i < moves.length(); i++)
+            logic.insertCoin(moves.charAt(i) - '0', i % 2 + 1);
+
+        return logic;
+    }
+}
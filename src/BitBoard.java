@@ -0,0 +1,207 @@
+/**
+ * A position on a bitboard, as searched by GameLogic. The cells are numbered column by column from the
+ * bottom, with a free cell on top of each column, so cell x * (height + 1) + y is row y of column x:
+ *
+ *  .  .  .  .  .  .  . TOP
+ *  5 12 19 26 33 40 47
+ *  4 11 18 25 32 39 46
+ *  3 10 17 24 31 38 45
+ *  2  9 16 23 30 37 44
+ *  1  8 15 22 29 36 43
+ *  0  7 14 21 28 35 42 BOTTOM
+ *
+ * Boards that fit in a single long are played on a LongBoard, bigger ones on a WideBoard of several longs,
+ * so the search only needs to know this class. Coins are played and taken back on the one board, and the
+ * checks may use scratch boards of their own, so a board must only be used by one thread at a time.
+ */
+public abstract class BitBoard {
+    // region Fields
+
+    protected static final int COMMON = 0;
+    protected static final int PLAYER1 = 1;
+    protected static final int PLAYER2 = 2;
+
+    protected final int width;
+    protected final int height;
+    protected final int height1;
+
+    // The number of coins in each column and on the board
+    protected final int[] heights;
+    protected int coins;
+
+    /// endregion
+
+    protected BitBoard(int width, int height) {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("The board must have at least one column and row");
+
+        this.width = width;
+        this.height = height;
+        height1 = height + 1;
+        heights = new int[width];
+    }
+
+    /**
+     * A copy of the position, e.g. for another thread.
+     */
+    protected BitBoard(BitBoard other) {
+        width = other.width;
+        height = other.height;
+        height1 = other.height1;
+        heights = other.heights.clone();
+        coins = other.coins;
+    }
+
+    /**
+     * An empty board of the given size, on a single long if it fits.
+     */
+    public static BitBoard create(int width, int height) {
+        return LongBoard.fits(width, height) ? new LongBoard(width, height) : new WideBoard(width, height);
+    }
+
+    public abstract BitBoard copy();
+
+    /**
+     * Set the position to that of another board of the same kind and size, without allocating.
+     */
+    public void set(BitBoard other) {
+        System.arraycopy(other.heights, 0, heights, 0, width);
+        coins = other.coins;
+    }
+
+    // region Position
+
+    /**
+     * Drop a coin of the player in a column that isn't full.
+     */
+    public void play(int column, int player) {
+        int cell = cell(column);
+        heights[column]++;
+        coins++;
+
+        add(cell, player);
+    }
+
+    /**
+     * Take back the last coin of a column, played by the player.
+     */
+    public void undo(int column, int player) {
+        heights[column]--;
+        coins--;
+
+        remove(cell(column), player);
+    }
+
+    protected abstract void add(int cell, int player);
+
+    protected abstract void remove(int cell, int player);
+
+    /**
+     * The cell the next coin in the column falls into.
+     */
+    public int cell(int column) {
+        return column * height1 + heights[column];
+    }
+
+    public boolean isFull(int column) {
+        return heights[column] == height;
+    }
+
+    public boolean isTie() {
+        return coins == width * height;
+    }
+
+    public int coins() {
+        return coins;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * The player whose turn it is - player 1 always starts.
+     */
+    public int toMove() {
+        return coins % 2 == 0 ? PLAYER1 : PLAYER2;
+    }
+
+    /**
+     * The player whose coin is in the cell, or 0 if it's empty.
+     */
+    public abstract int player(int cell);
+
+    /**
+     * A key for the position within the board size. On a LongBoard it is the position itself, on a WideBoard
+     * a 64 bit hash of it, so two positions may share a key there, if only very rarely.
+     */
+    public abstract long key();
+
+    /**
+     * The key of the position mirrored left to right.
+     */
+    public abstract long mirroredKey();
+
+    /**
+     * Fills the array with the columns that aren't full, from left to right.
+     *
+     * @return The number of columns.
+     */
+    public int possibleMoves(int[] columns) {
+        int n = 0;
+        for (int x = 0; x < width; x++)
+            if (heights[x] < height)
+                columns[n++] = x;
+        return n;
+    }
+
+    // endregion
+
+    // region BitBoard operations
+
+    /**
+     * Check if a player has four connected.
+     */
+    public abstract boolean hasFourConnected(int player);
+
+    /**
+     * The leftmost column where the player gets four connected with the next coin, or -1 if there is none.
+     */
+    public abstract int winningMove(int player);
+
+    /**
+     * Fills the array with the columns, from left to right, where the player to move doesn't let the
+     * opponent win with the next move. If the opponent has a single immediate win it must be blocked,
+     * if they have two the game is lost and there are no such moves. Coins directly below a threat of the
+     * opponent are left out.
+     *
+     * @return The number of columns.
+     */
+    public abstract int nonLosingMoves(int[] columns);
+
+    /**
+     * The number of threats the player to move has after playing in the column.
+     */
+    public abstract int threatsAfter(int column);
+
+    /**
+     * Count the threats of a player, the empty cells that would give them four connected.
+     *
+     * @param counts Set to the threats on the first, third, ... row and on the second, fourth, ... row.
+     */
+    public abstract void countThreats(int player, int[] counts);
+
+    /**
+     * The pattern heuristics of playing in the column for the player to move, the higher the better.
+     * Only boards of a single long have them, the others leave moves to the other heuristics.
+     */
+    public int patterns(int column) {
+        return 0;
+    }
+
+    // endregion
+}
@@ -0,0 +1,75 @@
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Starts and commits the Flight Recorder events of the engines. Loading an event class sets up the
+ * recorder, which takes a while, so the event classes are only touched once a recording is running,
+ * e.g. with -XX:StartFlightRecording. Events are only created while they are enabled, so the search
+ * doesn't allocate when nothing is recorded.
+ */
+public class FlightEvents {
+
+    // The types of the events, only looked up once the recorder is running
+    private static class Types {
+        static final EventType PASS = EventType.getEventType(SearchPassEvent.class);
+        static final EventType MOVE = EventType.getEventType(MoveDecisionEvent.class);
+    }
+
+    private FlightEvents() {
+    }
+
+    /**
+     * A started search pass event, or null if the event isn't recorded.
+     */
+    static SearchPassEvent startPass() {
+        if (!FlightRecorder.isInitialized() || !Types.PASS.isEnabled())
+            return null;
+
+        SearchPassEvent event = new SearchPassEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Fill in and commit a search pass event, if it is recorded.
+     */
+    static void commitPass(SearchPassEvent event, String engine, int depth, int score, int bestMove, long nodes) {
+        if (event == null || !event.shouldCommit())
+            return;
+
+        event.engine = engine;
+        event.depth = depth;
+        event.score = score;
+        event.bestMove = bestMove;
+        event.nodes = nodes;
+        event.commit();
+    }
+
+    /**
+     * A started move decision event, or null if the event isn't recorded.
+     */
+    static MoveDecisionEvent startMove() {
+        if (!FlightRecorder.isInitialized() || !Types.MOVE.isEnabled())
+            return null;
+
+        MoveDecisionEvent event = new MoveDecisionEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Fill in and commit a move decision event, if it is recorded.
+     */
+    static void commitMove(MoveDecisionEvent event, String engine, int move, int depth, long nodes, long budget, String stopReason) {
+        if (event == null || !event.shouldCommit())
+            return;
+
+        event.engine = engine;
+        event.move = move;
+        event.depth = depth;
+        event.nodes = nodes;
+        event.budget = budget;
+        event.stopReason = stopReason;
+        event.commit();
+    }
+}
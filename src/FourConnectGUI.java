@@ -4,7 +4,8 @@ import java.awt.event.*;
 
 /**
  * You do not have to change anything in this file.
- * The game moves are executed through calls to the methods mouseClicked(MouseEvent e) and run().
+ * The human moves are executed through calls to the method mouseClicked(MouseEvent e), the engine
+ * moves by a SwingWorker, so the window stays responsive while they think.
  *
  * @author Mai Ajspur
  * @version 1.2.2007
@@ -14,7 +15,12 @@ public class FourConnectGUI extends JComponent implements MouseListener {
 
     private boolean debug = false;
     private Stopwatch sw;
-    private int counter = -1;
+    private int counter = 0;
+
+    // The engine move being computed, and the progress shown meanwhile
+    private SwingWorker<Integer, Void> thinking;
+    private Timer indicator;
+    private String status = "";
 
     private int chosenColumn;    // The value of the last column chosen by the human player.
     private IGameLogic player1;
@@ -63,6 +69,14 @@ public class FourConnectGUI extends JComponent implements MouseListener {
         playerTurn = 1;
         gameBoard = new int[cols][rows];
         this.addMouseListener(this);
+
+        // An engine moving first starts without waiting for a click
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                next();
+            }
+        });
     }
 
     /*
@@ -104,6 +118,9 @@ public class FourConnectGUI extends JComponent implements MouseListener {
         g.drawImage(corner_right_top, 100 + 100 * cols, 0, this);
         g.drawImage(corner_right_bottom, 100 + 100 * cols, rows * 100 + 100, this);
 
+        g.setColor(Color.WHITE);
+        g.drawString(status, 100, 85);
+
         switch (winner){
             case PLAYER1:
                 g.drawImage(blueWon, cols * 100 / 2 - 50, rows * 100 / 2 + 25, this);
@@ -129,7 +146,7 @@ public class FourConnectGUI extends JComponent implements MouseListener {
     }
 
     private boolean updateBoard(int col, int player) {
-        if (col == -1) {
+        if (col < 0 || col >= gameBoard.length) {
             return false;
         }
         if (gameBoard[col][0] != 0) {
@@ -147,74 +164,113 @@ public class FourConnectGUI extends JComponent implements MouseListener {
      * player is prompted to make a move, which is done in a new thread.
      */
     public void mouseClicked(MouseEvent e) {
-        if (debug && sw == null)
-            sw = new Stopwatch();
-        if (debug)
-            counter++;
-
-        if (winner == IGameLogic.Winner.NOT_FINISHED) {
-            int col = -1;
-            if (playerTurn == 1) {
-                if (player1 == null) {//human
-                    col = humanSelectedColumn(e);
-                    if (updateBoard(col, 1)) {
-                        player2.insertCoin(col, 1);
-                        winner = player2.gameFinished();
-                        playerTurn = 2;
-                    }
-                } else {//computer
-                    StdOut.print("Asked player1 for next move. ");
-                    Stopwatch sw = new Stopwatch();
-                    col = player1.decideNextMove();
-                    StdOut.println("Done in " + sw.elapsedTime() + " s");
-                    if (updateBoard(col, 1)) {
-                        if (player2 != null) player2.insertCoin(col, 1);
-                        player1.insertCoin(col, 1);
-                        winner = player1.gameFinished();
-                        playerTurn = 2;
-                    } else {
-                        JOptionPane.showMessageDialog(this,
-                                "Player1 chose an invalid move, please debug!",
-                                "Invalid Move",
-                                JOptionPane.ERROR_MESSAGE);
-                    }
-                }
-            } else {
-                if (player2 == null) {//human
-                    col = humanSelectedColumn(e);
-                    if (updateBoard(col, 2)) {
-                        player1.insertCoin(col, 2);
-                        winner = player1.gameFinished();
-                        playerTurn = 1;
-                    }
-                } else {//computer
-                    StdOut.print("Asked player2 for next move. ");
-                    Stopwatch sw = new Stopwatch();
-                    col = player2.decideNextMove();
-                    StdOut.println("Done in " + sw.elapsedTime() + " s");
-                    if (updateBoard(col, 2)) {
-                        if (player1 != null) player1.insertCoin(col, 2);
-                        player2.insertCoin(col, 2);
-                        winner = player2.gameFinished();
-                        playerTurn = 1;
-                    } else {
-                        JOptionPane.showMessageDialog(this,
-                                "Player2 chose an invalid move, please debug!",
-                                "Invalid Move",
-                                JOptionPane.ERROR_MESSAGE);
-                    }
+        // Clicks are ignored while an engine is thinking
+        if (winner != IGameLogic.Winner.NOT_FINISHED || thinking != null || engine(playerTurn) != null)
+            return;
+
+        if (play(humanSelectedColumn(e), playerTurn))
+            next();
+        repaint();
+    }
+
+    /**
+     * Let the engine to move think, if any, off the event dispatch thread. Its move is played on the
+     * event dispatch thread when it is done, and the engine of the other player is asked in turn, so
+     * games between engines play on their own.
+     */
+    private void next() {
+        final IGameLogic engine = engine(playerTurn);
+        if (winner != IGameLogic.Winner.NOT_FINISHED || engine == null)
+            return;
+
+        final int player = playerTurn;
+        final Stopwatch moveSw = new Stopwatch();
+        StdOut.print("Asked player" + player + " for next move. ");
+
+        thinking = new SwingWorker<Integer, Void>() {
+            @Override
+            protected Integer doInBackground() {
+                return engine.decideNextMove();
+            }
+
+            @Override
+            protected void done() {
+                thinking = null;
+                indicator.stop();
+                status = "";
+
+                int col = -1;
+                try {
+                    col = get();
+                } catch (Exception e) {
+                    e.printStackTrace();
                 }
+                StdOut.println("Done in " + moveSw.elapsedTime() + " s");
+
+                if (play(col, player))
+                    next();
+                else
+                    JOptionPane.showMessageDialog(FourConnectGUI.this,
+                            "Player" + player + " chose an invalid move, please debug!",
+                            "Invalid Move",
+                            JOptionPane.ERROR_MESSAGE);
+                repaint();
             }
-            if (debug)
-                mouseClicked(e);
-        }
-        repaint();
+        };
 
-        if (debug && sw != null) {
+        // Show the progress of the search while waiting
+        indicator = new Timer(200, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                status = "Player" + player + " is thinking" + progress(engine, moveSw.elapsedTime());
+                repaint();
+            }
+        });
+        indicator.start();
+        thinking.execute();
+    }
+
+    private static String progress(IGameLogic engine, double seconds) {
+        String time = String.format(" for %.1f s", seconds);
+        if (!(engine instanceof GameLogic))
+            return time;
+
+        GameLogic logic = (GameLogic) engine;
+        return String.format(" at depth %d, %.0f knodes/s", logic.depth(), logic.nodes() / Math.max(seconds, 1e-3) / 1000) + time;
+    }
+
+    /**
+     * The engine of a player, or null for a human.
+     */
+    private IGameLogic engine(int player) {
+        return player == 1 ? player1 : player2;
+    }
+
+    /**
+     * Drop a coin, tell the engines and find out whether the game is over.
+     *
+     * @return True if the move was valid.
+     */
+    private boolean play(int col, int player) {
+        if (debug && sw == null)
+            sw = new Stopwatch();
+
+        if (!updateBoard(col, player))
+            return false;
+
+        if (player1 != null) player1.insertCoin(col, player);
+        if (player2 != null) player2.insertCoin(col, player);
+        winner = (player1 != null ? player1 : player2).gameFinished();
+        playerTurn = 3 - player;
+        counter++;
+
+        if (debug && winner != IGameLogic.Winner.NOT_FINISHED) {
             StdOut.println("Total time played: " + sw.elapsedTime());
             StdOut.println("Total moves: " + counter);
             sw = null;
         }
+
+        return true;
     }
 
     // Not used methods from the interface of MouseListener 
@@ -1,6 +1,21 @@
-import java.util.HashMap;
-
-public class GameLogic implements IGameLogic {
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+
+public class GameLogic implements IGameLogic, AutoCloseable {
     // region Fields
 
     private static boolean debug = false;
@@ -12,16 +27,17 @@ public class GameLogic implements IGameLogic {
     private int height1;
     private int height2;
 
-    // Helper masks
-    private long all1;
-    private long col1;
-    private long bottom;
-    private long top;
-    private long odd, even;
-    private long[] winnerMasks;
+    // The cells of every way to get four connected, and the indices of the lines through each cell
+    private int[][] lineCells;
+    private int[][] cellLines;
+    // The threats counted by the full evaluation, which is only used by one thread at a time
+    private final int[] thisThreats = new int[2];
+    private final int[] thatThreats = new int[2];
 
-    // Maximal possible size of the board
-    private static final int MAX_SIZE = 64;
+    // The move is stored in a byte of the table entries and the opening book
+    private static final int MAX_WIDTH = 254;
+    // Play on a board of several longs even if the board fits in one
+    private boolean wide;
 
     // Player ids - We are always MAX
     private int COMMON = 0;
@@ -34,381 +50,2008 @@ public class GameLogic implements IGameLogic {
     private static final int WIN  = +1 << 24;
     private static final int LOSS = -1 << 24;
     private static final int TIE  =  0;
+    // Can be negated, unlike Integer.MIN_VALUE
+    private static final int INFINITY = Integer.MAX_VALUE;
+    // Half width of the aspiration window around the score of the last pass
+    private static final int ASPIRATION = 64;
+    // Assumed growth of a pass when there is no earlier pass to compare with
+    private static final double BRANCHING = 4.0;
 
     // The board
-    private long[] currentState = new long[3];
+    private BitBoard currentState;
+    // The position searched by the workers - the current state, or the predicted one while pondering
+    private BitBoard root;
 
 
     private short[] frequency;
-    private int maxX;
-    private int nextMove;
+    // The result of the main worker's last completed pass, published to the deciding thread
+    private volatile int nextMove;
+    private volatile int nextDepth;
     private int lastCutoff = 10;
 
-    // caches
-    private HashMap<Long, int[]> actionCache = new HashMap<Long, int[]>(4 * 1000 * 1000);
-    private HashMap<Long, Integer> evalCache = new HashMap<Long, Integer>();
-    private boolean stop;
+    // Transposition table - kept across iterative deepening passes and moves
+    private static final int TABLE_BITS = 21;
+    private int tableBits = TABLE_BITS;
+    private TranspositionTable table = new TranspositionTable(TABLE_BITS);
+    // Mirrored positions share their keys in the table, the solver and the opening book
+    private boolean symmetry = true;
+    private volatile boolean stop;
+
+    // Time control
+    private long moveMillis = 5 * 1000;
+    private long gameMillis = Long.MAX_VALUE;
+    private TimeManager time = new TimeManager(moveMillis, gameMillis);
+    // The time the current move may take at most, if decided in the background, or else 0
+    private volatile long deadlineMillis;
+    // Told about the main worker's completed passes, if the move is decided in the background
+    private volatile Listener listener;
+    // Why the main worker stopped deepening, for the move decision events, or null if it hasn't
+    private volatile String stopReason;
+    // The thread deciding the move, while the main worker searches on it, or else null
+    private volatile Thread decider;
+
+    // The counters of the workers, added up after every move
+    private final SearchStats stats = new SearchStats();
+
+    // Opening book - the default file for the board size is used, if it exists
+    private File bookFile;
+    private OpeningBook book;
+
+    // Pondering - searching the position after the predicted reply on the opponent's time
+    private boolean ponder;
+    private volatile boolean pondering;
+    private Thread[] ponderThreads;
+    private long ponderStart;
+
+    // The search engines
+    public enum Engine {
+        // Helper threads search the same tree sharing the transposition table
+        LAZY_SMP,
+        // Younger brothers are searched in parallel once the eldest brother has given a bound
+        YOUNG_BROTHERS
+    }
+
+    private final Engine engine;
+
+    // The drivers of each iterative deepening pass
+    public enum Driver {
+        // Alpha-beta within an aspiration window around the last score
+        ALPHA_BETA,
+        // A sequence of null window searches converging on the score, seeded with the last score
+        MTDF
+    }
+
+    private volatile Driver driver = Driver.ALPHA_BETA;
+
+    // The ordering of the moves at each node
+    public enum Ordering {
+        // Pattern heuristics of each child
+        PATTERNS,
+        // Threats created, killer moves and a history of cutoffs, with the pattern heuristics breaking ties near the root
+        HISTORY
+    }
+
+    private volatile Ordering ordering = Ordering.HISTORY;
+    // Only order by the pattern heuristics this close to the root, as they are expensive
+    private static final int PATTERN_DEPTH = 2;
+    // Halve the history when it grows beyond this, keeping it recent and within its 30 bits of the priority
+    private static final long HISTORY_MAX = (1L << 30) - 1;
+
+    // The search threads' state - the first is the main thread, the rest are lazy SMP helpers
+    private final int threads;
+    private Worker[] workers;
+
+    // Solve the game exactly when fewer cells than this are empty
+    private int solverThreshold = 24;
+    private static final int SOLVER_TABLE_BITS = 20;
+    private Solver solver;
+
+    // Young brothers wait - only split nodes with more than this many plies left
+    private static final int SPLIT_DEPTH = 6;
+    private ForkJoinPool pool;
+    private final Queue<Worker> poolWorkers = new ConcurrentLinkedQueue<Worker>();
 
     /// endregion
 
-    // bitmask corresponds to board as follows in 7x6 case:
-    //  .  .  .  .  .  .  . TOP
-    //  5 12 19 26 33 40 47
-    //  4 11 18 25 32 39 46
-    //  3 10 17 24 31 38 45
-    //  2  9 16 23 30 37 44
-    //  1  8 15 22 29 36 43
-    //  0  7 14 21 28 35 42 BOTTOM
+    public GameLogic() {
+        this(1);
+    }
+
+    /**
+     * @param threads The number of threads to search with. Helper threads share the
+     *                transposition table with the main thread (lazy SMP).
+     */
+    public GameLogic(int threads) {
+        this(threads, Engine.LAZY_SMP);
+    }
+
+    /**
+     * @param threads The number of threads to search with.
+     * @param engine  The engine used to search in parallel.
+     */
+    public GameLogic(int threads, Engine engine) {
+        if (threads < 1)
+            throw new IllegalArgumentException("The number of threads must be positive");
+
+        this.threads = threads;
+        this.engine = engine;
+    }
 
     public void initializeGame(int width, int height, int player) {
+        // Stop pondering and the pool of the last game
+        close();
+
         // Check board size
-        if (width * (height + 1) > MAX_SIZE)
-            throw new RuntimeException("The board is too big for the game logic. The board size (height * width) may not exceed " + MAX_SIZE);
+        if (width > MAX_WIDTH)
+            throw new RuntimeException("The board is too wide for the game logic. The width may not exceed " + MAX_WIDTH);
 
         // Set board dimensions
         this.width = width;
         this.height = height;
+
         height1 = this.height + 1;
         height2 = this.height + 2;
 
-        // Calculate constants
-        all1 = (1L << height1 * width) - 1L;
-        col1 = (1L << height1)         - 1L;
-        bottom = all1 / col1;
-        top = bottom << height;
-
-        odd = bottom;
-        for (int i = 0; i < height; i+=2) odd = (odd << 2) | bottom;
-        even = all1 ^ odd;
-
-        currentState[COMMON] =
-        currentState[PLAYER1] =
-        currentState[PLAYER2] = 0L;
+        currentState = newBoard();
+        root = newBoard();
 
         MAX = player;
         MIN = 3 - player;
 
-        winnerMasks = initWinnerMasks();
+        lineCells = initLines();
+        cellLines = initCellLines();
         frequency = getFrequency();
+
+        table.clear();
+        // Young brothers wait uses a single main worker, which hands the tree to the pool
+        workers = new Worker[engine == Engine.LAZY_SMP ? threads : 1];
+        for (int i = 0; i < workers.length; i++)
+            workers[i] = new Worker(i);
+
+        solver = new Solver(Math.min(SOLVER_TABLE_BITS, tableBits));
+        time = new TimeManager(moveMillis, gameMillis);
+
+        try {
+            book = OpeningBook.load(bookFile != null ? bookFile : OpeningBook.file(width, height), width, height);
+        } catch (IOException e) {
+            e.printStackTrace();
+            book = null;
+        }
+
+        if (engine == Engine.YOUNG_BROTHERS)
+            pool = new ForkJoinPool(threads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    return new SearchThread(pool);
+                }
+            }, null, false);
+    }
+
+    /**
+     * An empty board of the game's size, on a single long if it fits.
+     */
+    private BitBoard newBoard() {
+        return wide ? new WideBoard(width, height) : BitBoard.create(width, height);
     }
 
     public Winner gameFinished() {
-        if (hasFourConnected(currentState[PLAYER1]))
+        if (currentState.hasFourConnected(PLAYER1))
             return Winner.PLAYER1;
 
-        if (hasFourConnected(currentState[PLAYER2]))
+        if (currentState.hasFourConnected(PLAYER2))
             return Winner.PLAYER2;
 
         // Chech if we have a tie due to a filled board
-        return isTie(currentState[COMMON]) ? Winner.TIE : Winner.NOT_FINISHED;
+        return currentState.isTie() ? Winner.TIE : Winner.NOT_FINISHED;
     }
 
     public void insertCoin(int column, int player) {
-        long action = (currentState[COMMON] + bottom) & (col1 << column * height1);
+        currentState.play(column, player);
+
+        // The opponent didn't play the predicted reply, the search is joined when we must move
+        if (ponderThreads != null && !currentState.equals(root))
+            stop = true;
+
+        // Think on the opponent's time
+        if (ponder && player == MAX) {
+            stopPondering();
+            ponder();
+        }
+    }
+
+    public int decideNextMove() {
+        long start = System.nanoTime();
+        MoveDecisionEvent event = FlightEvents.startMove();
+
+        // Play from the opening book
+        int move = bookMove(currentState);
+        if (move >= 0) {
+            stopPondering();
+            StdOut.println("Picked " + move + " from the opening book");
+            record(SearchStats.Source.BOOK, move, start, event);
+            return move;
+        }
+
+        // Force first move
+        if (currentState.coins() == 0) {
+            record(SearchStats.Source.FORCED, width / 2, start, event);
+            return width / 2;
+        }
+
+        int empty = width * height - currentState.coins();
+        SearchStats.Source source;
+
+        if (ponderThreads != null && currentState.equals(root)) {
+            // The opponent played the predicted reply, so the time spent pondering counts for this move
+            time.startMove((empty + 1) / 2, System.nanoTime() - ponderStart);
+            if (deadlineMillis > 0) time.limit(deadlineMillis);
+            source = SearchStats.Source.PONDER;
+            move = ponderHit();
+        }
+        else {
+            stopPondering();
+            time.startMove((empty + 1) / 2);
+            if (deadlineMillis > 0) time.limit(deadlineMillis);
+
+            // Solve the game exactly, when few cells are left
+            source = empty < solverThreshold ? SearchStats.Source.SOLVER : SearchStats.Source.SEARCH;
+            move = source == SearchStats.Source.SOLVER ? solve() : search();
+        }
+
+        time.endMove();
+        record(source, move, start, event);
+        return move;
+    }
+
+    /**
+     * Add up the counters of the workers, or the solver, for the move just decided, and commit its event.
+     */
+    private void record(SearchStats.Source source, int move, long start, MoveDecisionEvent event) {
+        long nodes = 0, probes = 0, hits = 0, cutoffs = 0, firstCutoffs = 0;
+        int depth = 0, score = 0;
+        long budget = 0;
+        String reason;
+
+        if (source == SearchStats.Source.BOOK) {
+            reason = "book";
+        }
+        else if (source == SearchStats.Source.FORCED) {
+            reason = "forced";
+        }
+        else if (source == SearchStats.Source.SOLVER) {
+            nodes = solver.nodes;
+            budget = time.budget();
+            reason = "solved";
+        }
+        else {
+            // Searched, or pondered
+            for (Worker worker : workers) {
+                nodes += worker.nodes;
+                probes += worker.probes;
+                hits += worker.hits;
+                cutoffs += worker.cutoffs;
+                firstCutoffs += worker.firstCutoffs;
+            }
+            for (Worker worker : poolWorkers) {
+                nodes += worker.nodes;
+                probes += worker.probes;
+                hits += worker.hits;
+                cutoffs += worker.cutoffs;
+                firstCutoffs += worker.firstCutoffs;
+            }
+
+            depth = nextDepth;
+            score = workers[0].score;
+            budget = time.budget();
+            reason = stopReason;
+        }
+
+        stats.record(currentState.coins() + 1, source, move, score, depth, nodes,
+                System.nanoTime() - start, probes, hits, cutoffs, firstCutoffs);
+        FlightEvents.commitMove(event, getClass().getSimpleName(), move, depth, nodes, budget, reason);
+    }
+
+    /**
+     * The statistics of the moves decided, e.g. to register them with JMX or log them.
+     */
+    public SearchStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Decide the next move on a thread of its own within the given time, or the time control if it is
+     * shorter. The listener is told the best move of every pass of the main worker. The solver and the
+     * opening book aren't stopped when cancelled, as they are quick.
+     */
+    public Future<Integer> decideNextMove(final long millis, final Listener listener) {
+        return Decision.start(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                deadlineMillis = millis;
+                GameLogic.this.listener = listener;
+
+                try {
+                    return decideNextMove();
+                } finally {
+                    deadlineMillis = 0;
+                    GameLogic.this.listener = null;
+                }
+            }
+        }, "GameLogic");
+    }
+
+    /**
+     * The move stored in the opening book for the player to move, or -1 if the position isn't in it.
+     */
+    private int bookMove(BitBoard board) {
+        if (book == null)
+            return -1;
+
+        long key = key(board);
+        long entry = book.probe(key);
+        int move = entry != 0 ? orient(OpeningBook.move(entry), isMirrored(board, key)) : -1;
+
+        return move >= 0 && move < width && !board.isFull(move) ? move : -1;
+    }
+
+    private int solve() {
+        Stopwatch sw = new Stopwatch();
+        int score = solver.solve(currentState);
+
+        StdOut.println("Picked " + solver.bestX + ", proven " + solver.describe(score, currentState.coins()) +
+                " (" + solver.nodes + " nodes in " + sw.elapsedTime() + " s)");
+        return solver.bestX;
+    }
+
+    private int search() {
+        table.newSearch();
+        root.set(currentState);
+
+        resetNodes();
+        Stopwatch sw = new Stopwatch();
+
+        nextMove = -1;
+        nextDepth = 0;
+        stop = false;
+        stopReason = null;
+
+        // The main worker searches on the calling thread, so only the helpers need threads of their own.
+        // As nobody waits for it, the workers stop the search at the hard limit or when the move is cancelled
+        decider = Thread.currentThread();
+        Thread[] threads = workers.length > 1 ? startWorkers(1) : null;
+
+        try {
+            workers[0].run();
+        } finally {
+            decider = null;
+        }
+
+        // Clear the interruption, so the helpers can be joined
+        return finish(threads, Thread.interrupted(), sw, "");
+    }
+
+    /**
+     * Continue the search that has been pondering the current state since our last move.
+     */
+    private int ponderHit() {
+        Stopwatch sw = new Stopwatch();
+        Thread[] threads = ponderThreads;
+        ponderThreads = null;
+
+        // From now on the main worker asks the time manager before every pass
+        pondering = false;
+
+        return await(threads, sw, ", ponder hit");
+    }
+
+    /**
+     * Wait for the result of the running search and stop it.
+     */
+    private int await(Thread[] threads, Stopwatch sw, String info) {
+        boolean cancelled = false;
+        try {
+            // Wait until the main worker is done, or the time is up - unless pondering has used it already
+            if (!time.softLimitReached())
+                threads[0].join(time.remaining());
+
+            // Wait until we have an answer, even if it takes longer
+            while (nextMove < 0)
+                Thread.sleep(10);
+        } catch (InterruptedException e) {
+            // The move is cancelled, so the answer isn't needed
+            cancelled = true;
+        }
+
+        return finish(threads, cancelled, sw, info);
+    }
+
+    /**
+     * Stop the workers still searching and report the result of the main worker.
+     */
+    private int finish(Thread[] threads, boolean cancelled, Stopwatch sw, String info) {
+        try {
+            if (threads != null)
+                stopWorkers(threads);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        // The main worker was still deepening
+        if (stopReason == null)
+            stopReason = cancelled ? "cancelled" : "hard limit";
+
+        // Let the caller see the cancellation
+        if (cancelled)
+            Thread.currentThread().interrupt();
+
+        StdOut.println("Picked " + nextMove + " at depth " + nextDepth + " (" + driver + info + ", " + nodes() + " nodes in " + sw.elapsedTime() + " s)");
+        return nextMove;
+    }
+
+    /**
+     * Start searching the position after the reply we expect from the opponent, so that the table is
+     * filled, and the search can simply go on if they play it. The reply is the best move stored for the
+     * opponent by our last search. Positions left to the solver or in the book are not pondered, as they
+     * are answered quickly anyway.
+     */
+    private void ponder() {
+        long key = key(currentState);
+        long entry = table.probe(key);
+        int reply = entry != 0 ? orient(TranspositionTable.move(entry), isMirrored(currentState, key)) : -1;
+
+        if (reply < 0 || terminalTest(currentState) || currentState.isFull(reply))
+            return;
+
+        root.set(currentState);
+        root.play(reply, MIN);
+
+        int empty = width * height - root.coins();
+        if (terminalTest(root) || empty < solverThreshold || bookMove(root) >= 0)
+            return;
+
+        if (debug) StdOut.println("Pondering on " + reply);
+
+        table.newSearch();
+        resetNodes();
+
+        nextMove = -1;
+        stop = false;
+        stopReason = null;
+        pondering = true;
+        ponderStart = System.nanoTime();
+        ponderThreads = startWorkers(0);
+    }
+
+    /**
+     * Stop pondering, if we are.
+     */
+    private void stopPondering() {
+        if (ponderThreads == null)
+            return;
+
+        try {
+            stopWorkers(ponderThreads);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        ponderThreads = null;
+        pondering = false;
+    }
+
+    /**
+     * Stop pondering and shut down the young brothers pool, whose idle threads would otherwise keep the
+     * game logic and its table alive. A new game may still be started afterwards.
+     */
+    @Override
+    public void close() {
+        stopPondering();
+
+        if (pool != null)
+            pool.shutdownNow();
+        pool = null;
+        poolWorkers.clear();
+    }
+
+    /**
+     * Set the time to think. A new budget for the game starts with every game.
+     *
+     * @param moveMillis The maximal time to use on a single move.
+     * @param gameMillis The time to use on all our moves in a game.
+     */
+    public void setTimeControl(long moveMillis, long gameMillis) {
+        this.moveMillis = moveMillis;
+        this.gameMillis = gameMillis;
+        time = new TimeManager(moveMillis, gameMillis);
+    }
+
+    /**
+     * Resize the transposition tables, e.g. to host many games at once. Effective from the next game.
+     *
+     * @param bits The logarithm of the number of buckets, each of 32 bytes.
+     */
+    public void setTableBits(int bits) {
+        if (bits != tableBits) {
+            tableBits = bits;
+            table = new TranspositionTable(bits);
+        }
+    }
+
+    /**
+     * Select the ordering of moves used for the following searches.
+     */
+    public void setOrdering(Ordering ordering) {
+        this.ordering = ordering;
+    }
+
+    /**
+     * Use the given opening book from the next game on, instead of the default file for the board size.
+     */
+    public void setOpeningBook(File file) {
+        bookFile = file;
+    }
+
+    /**
+     * Search the position after the opponent's predicted reply while they are thinking.
+     */
+    public void setPondering(boolean ponder) {
+        this.ponder = ponder;
+
+        if (!ponder)
+            stopPondering();
+    }
+
+    /**
+     * Solve the game exactly instead of searching, once fewer than the given number of cells are empty.
+     */
+    public void setSolverThreshold(int empty) {
+        solverThreshold = empty;
+    }
+
+    /**
+     * Select the driver used for the following searches.
+     * MTD(f) needs the table's bounds, so the young brothers engine always uses alpha-beta.
+     */
+    public void setDriver(Driver driver) {
+        this.driver = driver;
+    }
+
+    /**
+     * Search the current state with iterative deepening up to a fixed cutoff depth. The main
+     * worker runs on the calling thread, helpers on their own threads until it is done.
+     * Used for benchmarking the search.
+     *
+     * @return The best move found.
+     */
+    int search(int cutoff) {
+        root.set(currentState);
+        resetNodes();
+
+        stop = false;
+        // Don't allocate anything when searching on a single thread
+        Thread[] threads = workers.length > 1 ? startWorkers(1) : null;
+
+        workers[0].deepen(2 - cutoff % 2, cutoff, false);
+
+        try {
+            if (threads != null)
+                stopWorkers(threads);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        return workers[0].maxX;
+    }
+
+    /**
+     * The score of the last completed pass of the last search, from the point of view of the player to move.
+     */
+    int score() {
+        return workers[0].score;
+    }
+
+    /**
+     * The key of the current state for the player to move.
+     */
+    long key() {
+        return key(currentState);
+    }
+
+    /**
+     * Mirror a move of the current state if its key is that of the mirrored state, so that it fits the key.
+     */
+    int orient(int move) {
+        return orient(move, isMirrored(currentState, key(currentState)));
+    }
+
+    /**
+     * Use the same key for mirrored positions, e.g. to compare the table hit rate with and without.
+     */
+    void setSymmetry(boolean symmetry) {
+        this.symmetry = symmetry;
+    }
+
+    /**
+     * Play on a board of several longs even if the board fits in one, e.g. to compare the two.
+     * Effective from the next game.
+     */
+    void setWide(boolean wide) {
+        this.wide = wide;
+    }
+
+    /**
+     * The number of table probes and hits of all workers in the last search.
+     */
+    long probes() {
+        long probes = 0;
+        for (Worker worker : workers)
+            probes += worker.probes;
+        for (Worker worker : poolWorkers)
+            probes += worker.probes;
+        return probes;
+    }
+
+    long hits() {
+        long hits = 0;
+        for (Worker worker : workers)
+            hits += worker.hits;
+        for (Worker worker : poolWorkers)
+            hits += worker.hits;
+        return hits;
+    }
+
+    /**
+     * Take back the top coin of a column, e.g. to walk the game tree.
+     */
+    void removeCoin(int column, int player) {
+        currentState.undo(column, player);
+    }
+
+    /**
+     * The number of nodes visited by all workers in the last search.
+     */
+    long nodes() {
+        long nodes = 0;
+        for (Worker worker : workers)
+            nodes += worker.nodes;
+        for (Worker worker : poolWorkers)
+            nodes += worker.nodes;
+        return nodes;
+    }
+
+    /**
+     * The depth of the last completed pass of the current or last search.
+     */
+    int depth() {
+        return nextDepth;
+    }
+
+    private void resetNodes() {
+        for (Worker worker : workers)
+            worker.nodes = worker.probes = worker.hits = worker.cutoffs = worker.firstCutoffs = 0;
+
+        // Iterating the queue allocates, so only do it when there is a pool
+        if (pool != null)
+            for (Worker worker : poolWorkers)
+                worker.nodes = worker.probes = worker.hits = worker.cutoffs = worker.firstCutoffs = 0;
+    }
+
+    /**
+     * Start the workers from the given index on their own threads.
+     */
+    private Thread[] startWorkers(int first) {
+        Thread[] threads = new Thread[workers.length];
+
+        for (int i = first; i < workers.length; i++) {
+            threads[i] = new Thread(workers[i]);
+            threads[i].start();
+        }
+
+        return threads;
+    }
+
+    /**
+     * Stop the workers and wait for them to finish, so their state can be reused.
+     */
+    private void stopWorkers(Thread[] threads) throws InterruptedException {
+        stop = true;
+
+        for (Thread thread : threads) {
+            if (thread != null) {
+                thread.interrupt();
+                thread.join();
+            }
+        }
+    }
+
+
+    private class Worker implements Runnable {
+        // Worker 0 is the main thread, whose result is reported, positive ids are lazy SMP helpers
+        // and negative ids belong to the young brothers wait pool
+        private final int id;
+
+        // Move stack indexed by ply, preallocated so the search doesn't allocate
+        private final int[][] moves;
+        private final long[][] heuristics;
+
+        // The cells of two moves per ply that recently caused a cutoff, and the cutoffs caused by playing in each cell
+        private final int[][] killers;
+        private final long[] history;
+
+        // The best move at the root of the last search and the score of its last completed pass
+        private int maxX;
+        private int score;
+        // Number of nodes visited, and of transposition table probes and hits
+        private long nodes;
+        private long probes, hits;
+        // Beta cutoffs, and those caused by the first move searched
+        private long cutoffs, firstCutoffs;
+        // Random state for perturbing the move order of helpers
+        private long seed;
+        // The young brothers wait node whose subtree is being searched serially
+        private Split split;
+        // The position being searched, and its evaluation updated along with it
+        private final BitBoard board = newBoard();
+        private final Evaluator evaluator = new Evaluator(board);
+
+        Worker(int id) {
+            this.id = id;
+            seed = 0x9E3779B97F4A7C15L * (id + 1);
+
+            int plies = width * height + 1;
+            moves = new int[plies][width];
+            heuristics = new long[plies][width];
+
+            killers = new int[plies][2];
+            for (int[] killer : killers)
+                Arrays.fill(killer, -1);
+            history = new long[width * height1];
+        }
+
+        @Override
+        public void run() {
+            // Helpers start at staggered depths to fill the table ahead of the main thread
+            int cutoff = lastCutoff + 2 * (id % 2);
+            int maxCutoff = width * height - root.coins();
+
+            deepen(cutoff, maxCutoff, id == 0);
+        }
+
+        /**
+         * Iterative deepening search from the given cutoff depth until the max cutoff depth.
+         *
+         * @param timed True if the time manager decides when to stop deepening.
+         */
+        private void deepen(int cutoff, int maxCutoff, boolean timed) {
+            Thread currentThread = Thread.currentThread();
+            maxX = -1;
+            int score = 0;
+            boolean first = true;
+            long lastNodes = 0;
+
+            // Let the history of earlier searches fade
+            ageHistory();
+
+            // Iterative deepening search
+            do {
+                if (stop || currentThread.isInterrupted())
+                    break;
+
+                int lastX = maxX;
+                int lastScore = score;
+                long passStart = System.nanoTime();
+                long passNodes = nodes;
+                SearchPassEvent event = id == 0 ? FlightEvents.startPass() : null;
+
+                if (driver == Driver.MTDF && engine == Engine.LAZY_SMP)
+                    score = mtdf(cutoff, first ? 0 : score);
+                else
+                    score = aspiration(cutoff, first ? 0 : score, first);
+
+                // Only the main thread reports its result, and only from completed passes
+                if (id == 0 && !stop) {
+                    nextDepth = cutoff;
+                    nextMove = maxX;
+                    this.score = score;
+
+                    // We haven't played a coin yet
+                    if (root.coins() < 2)
+                        lastCutoff = cutoff - 2;
+
+                    if (debug) StdOut.println("Found new best move (" + nextMove + ") with cutoff " + cutoff);
+                    FlightEvents.commitPass(event, GameLogic.this.getClass().getSimpleName(), cutoff, score, maxX, nodes - passNodes);
+
+                    Listener listener = GameLogic.this.listener;
+                    if (listener != null)
+                        listener.improved(maxX, cutoff);
+
+                    if (timed) {
+                        // Deeper passes won't change a proven win or loss
+                        if (isWinOrLoss(score)) {
+                            stopReason = "proven";
+                            break;
+                        }
+
+                        // Predict the next pass from the growth of this one, and take more time if the search is unstable
+                        passNodes = nodes - passNodes;
+                        double branching = lastNodes > 0 ? passNodes / (double) lastNodes : BRANCHING;
+                        boolean critical = !first && (maxX != lastX || score < lastScore - ASPIRATION);
+
+                        // Keep deepening while pondering, until our move is due
+                        if (!pondering && !time.canStartPass(System.nanoTime() - passStart, branching, critical)) {
+                            stopReason = "soft limit";
+                            break;
+                        }
+
+                        lastNodes = passNodes;
+                    }
+                }
+
+                first = false;
+
+                cutoff += 2;
+            } while(cutoff <= maxCutoff);
+
+            if (id == 0 && cutoff > maxCutoff)
+                stopReason = "max depth";
+        }
+
+        /**
+         * Alpha-beta search within an aspiration window around the guess, widening the window
+         * on the side it failed until the score falls inside.
+         *
+         * @return The score of the current state.
+         */
+        private int aspiration(int cutoff, int guess, boolean fullWindow) {
+            int alpha = fullWindow ? -INFINITY : guess - ASPIRATION;
+            int beta  = fullWindow ?  INFINITY : guess + ASPIRATION;
+
+            while (true) {
+                int score = search(cutoff, alpha, beta);
+
+                if (stop)
+                    return score;
+                else if (score <= alpha)
+                    alpha = -INFINITY;
+                else if (score >= beta)
+                    beta = INFINITY;
+                else
+                    return score;
+            }
+        }
+
+        /**
+         * MTD(f): null window searches converging on the score from the guess. The table keeps
+         * the bounds from earlier searches, so each re-search is cheap.
+         *
+         * @return The score of the current state.
+         */
+        private int mtdf(int cutoff, int guess) {
+            int lower = -INFINITY;
+            int upper = INFINITY;
+            int score = guess;
+            int move = maxX;
+
+            while (lower < upper && !stop) {
+                int beta = score == lower ? score + 1 : score;
+                score = search(cutoff, beta - 1, beta);
+
+                if (score < beta) {
+                    upper = score;
+                }
+                else {
+                    // Only a search failing high proves its move is the best
+                    lower = score;
+                    move = maxX;
+                }
+            }
+
+            maxX = move;
+            return score;
+        }
+
+        /**
+         * Search the current state to the given cutoff depth within the given window.
+         * The best move is left in maxX.
+         *
+         * @return The score of the current state.
+         */
+        private int search(int cutoff, int alpha, int beta) {
+            if (engine == Engine.YOUNG_BROTHERS) {
+                // Order the root by the last pass only, so the move choice is reproducible
+                Split split = new Split(null, root, alpha, beta, 0, cutoff, maxX);
+                int score = pool.invoke(split);
+                maxX = split.bestX;
+                return score;
+            }
+
+            board.set(root);
+            evaluator.reset();
+            return negamax(alpha, beta, 0, cutoff);
+        }
+
+        /**
+         * Negamax search of the worker's board with principal variation search: the first move is searched
+         * with the full window, the rest with a null window, only re-searching moves that fail high.
+         *
+         * @return The score from the point of view of the player to move.
+         */
+        private int negamax(int alpha, int beta, int depth, int cutoff) {
+            // Look at the clock now and then, if the move is decided on the main worker's thread
+            if ((++nodes & 1023) == 0 && decider != null)
+                checkClock();
+
+            // Check if we should end the search
+            if (terminalTest(board))
+                return utility(board, depth);
+
+            // if we have reached cutoff depth, evaluate board and return
+            if (depth >= cutoff)
+                return evaluator.eval();
+
+            // Check the transposition table for a cutoff or a move to try first
+            long key = key(board);
+            boolean mirrored = isMirrored(board, key);
+            long entry = table.probe(key);
+            int ttMove = -1;
+            probes++;
+
+            if (entry != 0) {
+                hits++;
+                ttMove = orient(TranspositionTable.move(entry), mirrored);
+
+                // Never cut at the root, as we need the move
+                if (depth > 0 && engine == Engine.LAZY_SMP && TranspositionTable.depth(entry) >= cutoff - depth) {
+                    int score = fromTable(TranspositionTable.score(entry), depth);
+
+                    switch (TranspositionTable.bound(entry)) {
+                        case TranspositionTable.EXACT: return score;
+                        case TranspositionTable.LOWER: alpha = Math.max(alpha, score); break;
+                        case TranspositionTable.UPPER: beta = Math.min(beta, score); break;
+                    }
+
+                    if (alpha >= beta)
+                        return score;
+                }
+            }
+
+            // Remember the window to know the bound type of the result
+            int alpha0 = alpha, beta0 = beta;
+
+            // Set v to lowest possible value
+            int v = -INFINITY;
+            int bestX = -1;
+
+            // The player to move, for updating the evaluation
+            int player = board.toMove();
+
+            // Get a prioritized list of moves to explore
+            int[] moves = this.moves[depth];
+            int n = actionPriority(depth, ttMove, false);
+
+            // The opponent wins with their next move whatever we do
+            if (n == 0)
+                return LOSS + depth + 2;
+
+            // Iterate all moves
+            for (int i = 0; i < n && !aborted(); i++) {
+                int x = moves[i];
+                int score;
+
+                evaluator.play(x, player);
+
+                if (i == 0) {
+                    score = -negamax(-beta, -alpha, depth + 1, cutoff);
+                }
+                else {
+                    // Prove that the move is no better than the best so far
+                    score = -negamax(-alpha - 1, -alpha, depth + 1, cutoff);
+
+                    // It was better, so find its real score
+                    if (score > alpha && score < beta)
+                        score = -negamax(-beta, -alpha, depth + 1, cutoff);
+                }
+
+                evaluator.undo(x, player);
+
+                if (debug && depth == 0) StdOut.println(x + ": " + score);
+
+                // Check if score is higher
+                if (score > v) {
+                    v = score;
+                    bestX = x;
+
+                    if (depth == 0)
+                        maxX = x;
+
+                    // Beta cut
+                    if (v >= beta) {
+                        cutoff(board.cell(x), depth, cutoff);
+                        cutoffs++;
+                        if (i == 0) firstCutoffs++;
+                        break;
+                    }
+
+                    // Update alpha
+                    alpha = Math.max(alpha, v);
+                }
+            }
+
+            // Results of aborted searches can't be trusted
+            if (!aborted())
+                store(key, v, alpha0, beta0, depth, cutoff, orient(bestX, mirrored));
+
+            return v;
+        }
+
+        /**
+         * Fills the move stack at the given depth with the moves worth exploring in the worker's board, best first.
+         *
+         * @param reproducible True to order by the position and the given move only, not by anything the
+         *                     threads have learned, so the order is the same on every run.
+         * @return The number of moves to explore, 0 if every move lets the opponent win.
+         */
+        private int actionPriority(int depth, int ttMove, boolean reproducible) {
+            int[] moves = this.moves[depth];
+            long[] heuristics = this.heuristics[depth];
+
+            // Return immediately on a win
+            int win = board.winningMove(board.toMove());
+            if (win >= 0) {
+                moves[0] = win;
+                return 1;
+            }
+
+            // Only a block is left if the opponent can win, and nothing is left if they can win twice
+            int n = board.nonLosingMoves(moves);
+
+            if (n == 0) {
+                // We must still pick a move at the root
+                if (depth > 0)
+                    return 0;
+
+                n = board.possibleMoves(moves);
+            }
+
+            for (int i = 0; i < n; i++)
+                heuristics[i] = priority(moves[i], depth, ttMove, reproducible);
+
+            // Insertion sort, keeping moves with equal heuristics from left to right
+            for (int i = 1; i < n; i++) {
+                int x = moves[i];
+                long heuristic = heuristics[i];
+                int j = i;
+
+                for (; j > 0 && heuristics[j - 1] < heuristic; j--) {
+                    moves[j] = moves[j - 1];
+                    heuristics[j] = heuristics[j - 1];
+                }
+
+                moves[j] = x;
+                heuristics[j] = heuristic;
+            }
+
+            return n;
+        }
+
+        /**
+         * The priority of a move, the higher the sooner it is searched.
+         */
+        private long priority(int x, int depth, int ttMove, boolean reproducible) {
+            // Try the move from the transposition table first
+            if (x == ttMove)
+                return Long.MAX_VALUE;
+
+            if (ordering == Ordering.PATTERNS && !reproducible)
+                return h(board, x) + noise();
+
+            // Moves creating threats first - cheap, unlike the patterns
+            long threats = board.threatsAfter(x);
+
+            // The killers and the history depend on what each thread searched before, so only the column breaks ties
+            if (reproducible)
+                return (threats << 56) + hColumn(x);
+
+            // Then the killer moves and the history of the cell
+            int cell = board.cell(x);
+            long killer = cell == killers[depth][0] ? 2 : cell == killers[depth][1] ? 1 : 0;
+
+            // With ties broken by the patterns near the root, and by the column elsewhere
+            long tiebreak = depth < PATTERN_DEPTH ? h(board, x) : hColumn(x);
+
+            return (threats << 56) + (killer << 54) + (history[cell] << 24) + tiebreak + noise();
+        }
+
+        /**
+         * Remember a move that caused a beta cutoff, so it's tried early in similar positions.
+         */
+        private void cutoff(int cell, int depth, int cutoff) {
+            // Killers are cells rather than columns, as a column rarely means the same move in another position
+            int[] killers = this.killers[depth];
+            if (killers[0] != cell) {
+                killers[1] = killers[0];
+                killers[0] = cell;
+            }
+
+            // Cutoffs far from the leaves save the most
+            history[cell] += (cutoff - depth) * (cutoff - depth);
+
+            if (history[cell] > HISTORY_MAX)
+                ageHistory();
+        }
+
+        private void ageHistory() {
+            for (int i = 0; i < history.length; i++)
+                history[i] >>= 1;
+        }
+
+        /**
+         * A small random value to perturb the move order of helpers, so they search different parts of the tree.
+         */
+        private int noise() {
+            if (id <= 0)
+                return 0;
+
+            // Xorshift
+            seed ^= seed << 13;
+            seed ^= seed >>> 7;
+            seed ^= seed << 17;
+
+            return (int) seed & 0xFF;
+        }
+
+        /**
+         * Check if the search was stopped or the subtree was cut off.
+         */
+        private boolean aborted() {
+            return stop || split != null && split.aborted();
+        }
+
+        /**
+         * Stop the search when the move is cancelled, or at the hard limit once there is a move to play.
+         */
+        private void checkClock() {
+            Thread decider = GameLogic.this.decider;
+
+            if (decider != null && (decider.isInterrupted() || nextMove >= 0 && time.hardLimitReached()))
+                stop = true;
+        }
+    }
+
+    // region Young brothers wait
+
+    /**
+     * A pool thread with its own worker for searching subtrees serially.
+     */
+    private class SearchThread extends ForkJoinWorkerThread {
+        private final Worker worker = new Worker(-1);
+
+        SearchThread(ForkJoinPool pool) {
+            super(pool);
+            poolWorkers.add(worker);
+        }
+    }
+
+    /**
+     * Searches a node with young brothers wait: the first child is searched serially to get a bound,
+     * then the remaining children are forked. A cutoff in any child cancels its running brothers.
+     *
+     * To keep the result reproducible, split nodes are ordered by the best move of the last pass at the
+     * root, the threats created and the column only, not by the table, killers or history the threads
+     * have filled in whatever order they ran. Values are clamped to the window (fail-hard), so they don't
+     * depend on the order in which brothers finish.
+     */
+    private class Split extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final Split parent;
+        // The position of the node, only read, so the root may share the workers' root
+        private final BitBoard board;
+        private final int alpha, beta, depth, cutoff;
+        // The move to search first - the best move of the last pass at the root, or else -1
+        private final int ttMove;
+
+        // Set when a child fails low, so the remaining children can stop
+        private volatile boolean cut;
+        // The best move found
+        private int bestX = -1;
+
+        Split(Split parent, BitBoard board, int alpha, int beta, int depth, int cutoff, int ttMove) {
+            this.parent = parent;
+            this.board = board;
+            this.alpha = alpha;
+            this.beta = beta;
+            this.depth = depth;
+            this.cutoff = cutoff;
+            this.ttMove = ttMove;
+        }
+
+        @Override
+        protected Integer compute() {
+            Worker worker = ((SearchThread) Thread.currentThread()).worker;
+            int v;
+
+            // Search small subtrees and terminal states serially
+            if (depth > 0 && (cutoff - depth <= SPLIT_DEPTH || terminalTest(board))) {
+                Split previous = worker.split;
+                worker.split = this;
+
+                worker.board.set(board);
+                worker.evaluator.reset();
+                v = worker.negamax(alpha, beta, depth, cutoff);
+
+                worker.split = previous;
+            }
+            else {
+                v = split(worker);
+            }
+
+            // Failing low means the parent fails high, so it can cut off the brothers
+            if (parent != null && !aborted() && v <= alpha)
+                parent.cut = true;
+
+            return Math.max(alpha, Math.min(beta, v));
+        }
+
+        private int split(Worker worker) {
+            // Don't spawn any work in a subtree that is no longer needed
+            if (aborted())
+                return alpha;
+
+            worker.nodes++;
+
+            long key = key(board);
+            boolean mirrored = isMirrored(board, key);
+
+            // Copy the moves off the worker's stack, as the worker searches other subtrees while we wait
+            worker.board.set(board);
+            int n = worker.actionPriority(depth, ttMove, true);
+            int[] moves = Arrays.copyOf(worker.moves[depth], n);
+
+            // The opponent wins with their next move whatever we do
+            if (n == 0)
+                return LOSS + depth + 2;
+
+            int alpha = this.alpha;
+
+            // The eldest brother is searched first to get a bound
+            int v = -child(moves[0], -beta, -alpha).compute();
+            bestX = moves[0];
+
+            if (v >= beta) {
+                worker.cutoffs++;
+                worker.firstCutoffs++;
+            }
+
+            if (v >= beta || aborted())
+                return v;
+
+            alpha = Math.max(alpha, v);
+
+            // Now the younger brothers can be searched in parallel
+            Split[] brothers = new Split[n];
+            for (int i = 1; i < n; i++)
+                brothers[i] = (Split) child(moves[i], -beta, -alpha).fork();
+
+            // Combine in move order, so ties are broken the same way every time
+            for (int i = 1; i < n; i++) {
+                int value = -brothers[i].join();
+
+                if (cut || aborted())
+                    continue;
+
+                if (value > v) {
+                    v = value;
+                    bestX = moves[i];
+                }
+            }
+
+            // A brother failed high, the value is the bound
+            if (cut) {
+                v = beta;
+                worker.cutoffs++;
+            }
+
+            if (!aborted())
+                store(key, v, this.alpha, beta, depth, cutoff, orient(bestX, mirrored));
+
+            return v;
+        }
+
+        private Split child(int x, int alpha, int beta) {
+            BitBoard child = board.copy();
+            child.play(x, board.toMove());
+
+            return new Split(this, child, alpha, beta, depth + 1, cutoff, -1);
+        }
+
+        /**
+         * Check if the search was stopped or any node above was cut off.
+         */
+        private boolean aborted() {
+            if (stop)
+                return true;
+
+            for (Split split = parent; split != null; split = split.parent)
+                if (split.cut)
+                    return true;
+
+            return false;
+        }
+    }
+
+    // endregion
+
+    // region Incremental evaluation
+
+    /**
+     * Keeps the terms of eval() up to date while coins are played and taken back through it, so that a
+     * leaf is evaluated in constant time. A move only updates the lines through its cell.
+     *
+     * The coins of each player in every line are counted in place, and so are the lines in which each
+     * empty cell is a threat. The value of the lines is kept on a stack indexed by the number of coins,
+     * so taking a coin back only has to undo the counts.
+     */
+    private class Evaluator {
+        // The position evaluated
+        private final BitBoard board;
+        // Coins in each line indexed by player
+        private final byte[][] counts;
+        // The value of the lines from the point of view of player 1
+        private final int[] values;
+        // The lines each cell is a threat in, and the threat cells on the first, third, ... and on the
+        // second, fourth, ... row, indexed by player
+        private final byte[][] threatLines;
+        private final int[][] threats;
+
+        Evaluator(BitBoard board) {
+            this.board = board;
+
+            counts = new byte[3][lineCells.length];
+            values = new int[width * height + 1];
+            threatLines = new byte[3][width * height1];
+            threats = new int[3][2];
+        }
+
+        /**
+         * Recompute everything for a new position of the board.
+         */
+        private void reset() {
+            int value = 0;
+
+            for (int line = 0; line < lineCells.length; line++) {
+                counts[PLAYER1][line] = counts[PLAYER2][line] = 0;
+
+                for (int cell : lineCells[line]) {
+                    int player = board.player(cell);
+                    if (player != 0)
+                        counts[player][line]++;
+                }
+
+                value += value(line);
+            }
+
+            values[board.coins()] = value;
+
+            for (int player = PLAYER1; player <= PLAYER2; player++) {
+                Arrays.fill(threatLines[player], (byte) 0);
+                Arrays.fill(threats[player], 0);
+            }
+
+            for (int line = 0; line < lineCells.length; line++)
+                for (int player = PLAYER1; player <= PLAYER2; player++)
+                    if (counts[player][line] == 3 && counts[3 - player][line] == 0)
+                        threat(player, emptyCell(line), 1);
+        }
+
+        /**
+         * Drop a coin of the player on the board.
+         */
+        private void play(int column, int player) {
+            int coins = board.coins();
+            int cell = board.cell(column);
+            byte[] counts = this.counts[player];
+            int value = values[coins];
+
+            board.play(column, player);
+
+            for (int line : cellLines[cell]) {
+                value -= value(line);
+                counts[line]++;
+                value += value(line);
+
+                threats(line, cell, player, 1);
+            }
+
+            values[coins + 1] = value;
+        }
+
+        /**
+         * Take back the last coin of a column, played by the player.
+         */
+        private void undo(int column, int player) {
+            int cell = board.cell(column) - 1;
+            byte[] counts = this.counts[player];
+
+            for (int line : cellLines[cell]) {
+                threats(line, cell, player, -1);
+                counts[line]--;
+            }
+
+            board.undo(column, player);
+        }
+
+        /**
+         * Update the threats changed by the coin of the player in a line through its cell, counted
+         * and on the board. A change of -1 takes the update back.
+         */
+        private void threats(int line, int cell, int player, int change) {
+            int thisCount = counts[player][line];
+            int thatCount = counts[3 - player][line];
+
+            // Three coins and nothing else leave a threat in the empty cell of the line
+            if (thisCount == 3 && thatCount == 0)
+                threat(player, emptyCell(line), change);
+            // The coin filled our threat, or blocked the opponent's
+            else if (thisCount == 4)
+                threat(player, cell, -change);
+            else if (thisCount == 1 && thatCount == 3)
+                threat(3 - player, cell, -change);
+        }
+
+        private void threat(int player, int cell, int change) {
+            byte[] lines = threatLines[player];
+            boolean threat = lines[cell] > 0;
+
+            lines[cell] += change;
+
+            if (threat != lines[cell] > 0)
+                threats[player][cell % height1 % 2] += threat ? -1 : 1;
+        }
+
+        private int emptyCell(int line) {
+            for (int cell : lineCells[line])
+                if (board.player(cell) == 0)
+                    return cell;
+
+            throw new IllegalStateException("The line is full");
+        }
 
-        currentState[COMMON] |= action;
-        currentState[player] |= action;
-    }
+        /**
+         * The evaluation of the board from the point of view of the player to move, as eval().
+         */
+        private int eval() {
+            int coins = board.coins();
+            int player = board.toMove();
 
-    public int decideNextMove() {
-        actionCache = new HashMap<Long, int[]>(4 * 1000 * 1000);
+            int eval1 = player == PLAYER1 ? values[coins] : -values[coins];
+            int eval2 = evalThreats(threats[player], threats[3 - player], coins);
 
-        nextMove = -1;
-        stop = false;
-        Thread main = Thread.currentThread();
-        Thread worker = new Thread(new Worker());
-        worker.start();
+            return eval1 * 2 + eval2 * 5;
+        }
 
-        try {
-            main.sleep(5 * 1000);
+        /**
+         * The value of a line for eval1() from the point of view of player 1.
+         */
+        private int value(int line) {
+            int count1 = counts[PLAYER1][line];
+            int count2 = counts[PLAYER2][line];
 
-            // Wait until we have an answer, even if it takes more than 10 s
-            while (nextMove < 0)
-                main.sleep(100);
+            if (count1 > 0 && count2 == 0)
+                return 1 << count1 * 2;
+            else if (count2 > 0 && count1 == 0)
+                return -(1 << count2 * 2);
 
-            // Stop
-            worker.interrupt();
-            stop = true;
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            return 0;
         }
+    }
 
-        // Force first move
-        if (currentState[COMMON] == 0)
-            return width / 2;
+    /**
+     * Play random games, comparing the incremental evaluation to a full one after every move and every
+     * coin taken back.
+     *
+     * @return The number of positions where they differ.
+     */
+    int verifyEvaluation(int games, long seed) {
+        Random random = new Random(seed);
+        BitBoard empty = newBoard();
+        BitBoard board = newBoard();
+        Evaluator evaluator = new Evaluator(board);
+        int[] columns = new int[width * height];
+        int mismatches = 0;
+
+        for (int game = 0; game < games; game++) {
+            int n = 0;
+            board.set(empty);
+            evaluator.reset();
+
+            while (!terminalTest(board)) {
+                int player = board.toMove();
+
+                // Take back a coin now and then
+                if (n > 0 && random.nextInt(4) == 0) {
+                    evaluator.undo(columns[--n], 3 - player);
+                }
+                else {
+                    int x;
+                    do x = random.nextInt(width);
+                    while (board.isFull(x));
 
-        StdOut.println("Picked " + nextMove);
-        return nextMove;
+                    evaluator.play(x, player);
+                    columns[n++] = x;
+                }
+
+                if (evaluator.eval() != eval(board))
+                    mismatches++;
+            }
+        }
+
+        return mismatches;
     }
 
     /**
-     * Check if we have a tie, i.e. all positions are used.
+     * The primitives of the search run by runPrimitive().
      */
-    private boolean isTie(long commonBoard) {
-        return (commonBoard | top) == all1;
-    }
+    static final String[] PRIMITIVES = {"hasFourConnected", "threats", "eval", "incremental eval", "actionPriority"};
 
     /**
-     * Check if a move is valid, or the column is already full.
+     * Run one of the primitives of the search the given number of times, on the current state and the
+     * positions after each move in turn, for benchmarking.
+     *
+     * @param primitive The index of the primitive in PRIMITIVES.
+     * @return A sum of the results, so that the calls can't be optimised away.
      */
-    private boolean isValid(long action) {
-        return (action & top) == 0;
+    long runPrimitive(int primitive, int iterations) {
+        // The current state and its children, and the moves leading to them
+        BitBoard[] positions = new BitBoard[width + 1];
+        int[] moves = new int[width + 1];
+        int player = currentState.toMove();
+        int n = 0;
+
+        for (int x = -1; x < width; x++) {
+            if (x >= 0 && currentState.isFull(x))
+                continue;
+
+            positions[n] = currentState.copy();
+            if (x >= 0) positions[n].play(x, player);
+            moves[n++] = x;
+        }
+
+        Worker worker = workers[0];
+        worker.board.set(currentState);
+        worker.evaluator.reset();
+        int[] counts = new int[2];
+        long sum = 0;
+
+        for (int i = 0; i < iterations; i++) {
+            int j = i % n;
+            BitBoard position = positions[j];
+            int x = moves[j];
+
+            switch (primitive) {
+                case 0:
+                    // The player who has just moved
+                    sum += position.hasFourConnected(3 - position.toMove()) ? 1 : 0;
+                    break;
+                case 1:
+                    position.countThreats(position.toMove(), counts);
+                    sum += counts[0] + counts[1];
+                    break;
+                case 2:
+                    sum += eval(position);
+                    break;
+                case 3:
+                    // The children are evaluated after playing their move, the current state as it is
+                    if (x >= 0) worker.evaluator.play(x, player);
+                    sum += worker.evaluator.eval();
+                    if (x >= 0) worker.evaluator.undo(x, player);
+                    break;
+                case 4:
+                    if (x >= 0) worker.board.play(x, player);
+                    sum += worker.actionPriority(PATTERN_DEPTH, -1, false);
+                    if (x >= 0) worker.board.undo(x, player);
+                    break;
+                default:
+                    throw new IllegalArgumentException("No primitive " + primitive);
+            }
+        }
+
+        return sum;
     }
 
+    // endregion
 
-    private class Worker implements Runnable {
+    // region Perft
 
-        @Override
-        public void run() {
-            // Board values
-            long maxBoard = currentState[MAX];
-            long minBoard = currentState[MIN];
-            long commonBoard = currentState[COMMON];
+    /**
+     * Count the positions after the given number of plies from the current state, with the move
+     * generation and win check of the search. Finished games aren't played on.
+     *
+     * @param threads The number of threads counting the subtrees of the first moves in parallel.
+     * @return The number of positions after each first move, 0 for full columns.
+     */
+    long[] perft(final int depth, int threads) throws InterruptedException {
+        int player = currentState.toMove();
+        long[] counts = new long[width];
 
-            // Cutoff
-            int cutoff = lastCutoff;
-            int maxCutoff = width * height - Long.bitCount(commonBoard);
+        if (depth == 0 || gameFinished() != Winner.NOT_FINISHED)
+            return counts;
 
-            Thread currentThread = Thread.currentThread();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
 
-            // Iterative deepening search
-            do {
-                if (currentThread.isInterrupted())
-                    break;
+        for (int x = 0; x < width; x++) {
+            if (currentState.isFull(x)) {
+                futures.add(null);
+                continue;
+            }
 
-                maxValue(maxBoard, minBoard, commonBoard, Integer.MIN_VALUE, Integer.MAX_VALUE, 0, cutoff);
-                nextMove = maxX;
+            // Each subtree is counted on a board of its own
+            final BitBoard board = currentState.copy();
+            board.play(x, player);
 
-                if (currentState[MAX] == 0)
-                    lastCutoff = cutoff - 2;
+            futures.add(pool.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return perft(board, depth - 1);
+                }
+            }));
+        }
 
-                if (debug) StdOut.println("Found new best move (" + nextMove + ") with cutoff " + cutoff);
-                cutoff += 2;
-            } while(cutoff <= maxCutoff);
+        try {
+            for (int x = 0; x < width; x++)
+                if (futures.get(x) != null)
+                    counts[x] = futures.get(x).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
         }
+
+        return counts;
     }
 
+    /**
+     * Count the positions after the given number of plies, where the opponent has just moved.
+     */
+    private long perft(BitBoard board, int depth) {
+        if (depth == 0)
+            return 1;
 
-    // region BitBoard operations
+        int player = board.toMove();
+        if (board.hasFourConnected(3 - player))
+            return 0;
 
-    // Shifting operations:
-    // d c
-    // x b
-    //   a
+        long count = 0;
 
-    /**
-     * Check if a player has four connected.
-     *
-     * @param bitboard A bitboard representation of the player's coins on the board.
-     * @return True if the player has four connected, false otherwise.
-     */
-    private boolean hasFourConnected(long bitboard) {
-        long a = bitboard & bitboard >> height;
-        long b = bitboard & bitboard >> height1;
-        long c = bitboard & bitboard >> height2;
-        long d = bitboard & bitboard >> 1;
+        for (int x = 0; x < width; x++) {
+            if (board.isFull(x))
+                continue;
+
+            board.play(x, player);
+            count += perft(board, depth - 1);
+            board.undo(x, player);
+        }
 
-        return (a & a >> 2 * height |  // check diagonal   \
-                b & b >> 2 * height1 |  // check horizontal -
-                c & c >> 2 * height2 |  // check diagonal   /
-                d & d >> 2 * 1) != 0;   // check vertical   |
+        return count;
     }
 
     // endregion
 
-    // region MiniMax
+    // region Endgame solver
 
-    private int maxValue(long maxBoard, long minBoard, long commonBoard, int alpha, int beta, int depth, int cutoff) {
-        // Check if we should end the search
-        if (terminalTest(maxBoard, minBoard, commonBoard))
-            return utility(maxBoard, minBoard, commonBoard, depth);
-
-        // if we have reached cutoff depth, evaluate board and return
-        if (depth >= cutoff)
-            return eval(maxBoard, minBoard, commonBoard, depth);
-
-        // Set v to lowest possible value
-        int v = Integer.MIN_VALUE;
-
-        // Get the possible actions for the state
-        long[] actions = actions(commonBoard);
-        // Get a prioritized list of moves to explore
-        int[] actionPriority = actionPriority(maxBoard, minBoard, commonBoard, actions);
-        
-        // Iterate all moves
-        for (int i = 0; i < actionPriority.length && !stop; i++) {
-            int x = actionPriority[i];
-            long action = actions[x];
-
-            // Check if valid move
-            if (!isValid(action))
-                continue;
+    /**
+     * Solves positions with few empty cells exactly. Based on a weak (win/draw/loss) null window search
+     * that only considers non-losing moves, followed by a binary search for the distance to the end.
+     *
+     * Scores are from the point of view of the player to move: positive for a win, the higher the
+     * sooner, negative for a loss, the lower the sooner, and 0 for a draw.
+     */
+    private class Solver {
+        // Compact table of upper bounds - 0 means no entry
+        private final long[] keys;
+        private final short[] values;
+        private final int shift;
 
-            // Get min value
-            int min = minValue(
-                    maxBoard | action,
-                    minBoard,
-                    commonBoard | action,
-                    alpha,
-                    beta,
-                    depth + 1,
-                    cutoff
-            );
+        private final int cells;
+        private final int minScore;
 
-            if (debug && depth == 0) StdOut.println(x + ": " + min);
+        // The position being solved
+        private final BitBoard board = newBoard();
 
-            // Check if min is higher
-            if (min > v) {
-                v = min;
+        // The rank of each column from the center out and a move stack indexed by the number of coins
+        private final int[] columnRank;
+        private final int[][] moves;
+        private final int[][] scores;
 
-                if (depth == 0)
-                    maxX = x;
+        // The best move and number of nodes of the last solve
+        private int bestX;
+        private long nodes;
 
-                // Beta cut
-                if (v >= beta)
-                    return v;
+        Solver(int bits) {
+            keys = new long[1 << bits];
+            values = new short[1 << bits];
+            shift = 64 - bits;
 
-                // Update alpha
-                alpha = Math.max(alpha, v);
-            }
+            cells = width * height;
+            minScore = -cells / 2 + 3;
+
+            columnRank = new int[width];
+            for (int i = 0; i < width; i++)
+                columnRank[width / 2 + (1 - 2 * (i % 2)) * (i + 1) / 2] = i;
+
+            moves = new int[cells + 1][width];
+            scores = new int[cells + 1][width];
         }
 
-        return v;
-    }
+        /**
+         * Solve the position exactly and leave a best move in bestX.
+         *
+         * @return The score of the position.
+         */
+        private int solve(BitBoard position) {
+            nodes = 0;
+            board.set(position);
+
+            int coins = board.coins();
+            int player = board.toMove();
+            int[] moves = this.moves[coins];
+
+            // Win right away
+            int win = board.winningMove(player);
+            if (win >= 0) {
+                bestX = win;
+                return (cells + 1 - coins) / 2;
+            }
 
-    private int minValue(long maxBoard, long minBoard, long commonBoard, int alpha, int beta, int depth, int cutoff) {
-        // Return if we are in a terminal state
-        if (terminalTest(maxBoard, minBoard, commonBoard))
-            return utility(maxBoard, minBoard, commonBoard, depth);
+            // Lost whatever we do, block one of the threats to lose as late as possible
+            if (board.nonLosingMoves(moves) == 0) {
+                int block = board.winningMove(3 - player);
+                board.possibleMoves(moves);
+                bestX = block >= 0 ? block : moves[0];
+                return -(cells - coins) / 2;
+            }
 
-        // if we have reached cutoff depth, evaluate board and return
-        if (depth >= cutoff)
-            return -eval(minBoard, maxBoard, commonBoard, depth);
+            // Weak solve first
+            int score = negamax(-1, 1);
 
-        // Set v to lowest possible value
-        int v = Integer.MAX_VALUE;
+            // Then find the shortest win or longest loss with null window searches
+            if (score != 0) {
+                int min = score > 0 ? 1 : -(cells - coins) / 2;
+                int max = score > 0 ? (cells - 1 - coins) / 2 : -1;
 
-        // Get the possible actions for the state
-        long[] actions = actions(commonBoard);
-        // Get a prioritized list of moves to explore
-        int[] actionPriority = actionPriority(minBoard, maxBoard, commonBoard, actions);
+                while (min < max) {
+                    int med = min + (max - min) / 2;
 
-        for (int i = 0; i < actionPriority.length && !stop; i++) {
-            int x = actionPriority[i];
-            long action = actions[x];
+                    // Search closer to 0 first, as short games are quicker to prove
+                    if (med <= 0 && min / 2 < med) med = min / 2;
+                    else if (med >= 0 && max / 2 > med) med = max / 2;
 
-            // Check if valid move
-            if (!isValid(action))
-                continue;
+                    int r = negamax(med, med + 1);
+                    if (r <= med) max = r;
+                    else          min = r;
+                }
 
-            // Get min value
-            int max = maxValue(
-                    maxBoard,
-                    minBoard | action,
-                    commonBoard | action,
-                    alpha,
-                    beta,
-                    depth + 1,
-                    cutoff
-            );
+                score = min;
+            }
+
+            // Find a move that reaches the score
+            bestX = -1;
+            int n = order(board.nonLosingMoves(moves), coins);
 
-            // Check if min is higher
-            if (max < v) {
-                v = max;
+            for (int i = 0; i < n && bestX < 0; i++) {
+                board.play(moves[i], player);
 
-                // Beta cut
-                if (v <= alpha)
-                    return v;
+                if (-negamax(-score, -score + 1) >= score)
+                    bestX = moves[i];
 
-                // Update alpha
-                beta = Math.min(beta, v);
+                board.undo(moves[i], player);
             }
+
+            return score;
         }
 
-        return v;
-    }
+        /**
+         * Negamax with alpha-beta, assuming that the player to move can't win with the next move.
+         */
+        private int negamax(int alpha, int beta) {
+            nodes++;
+
+            int coins = board.coins();
+            int[] moves = this.moves[coins];
+            int n = board.nonLosingMoves(moves);
+
+            // Every move lets the opponent win
+            if (n == 0)
+                return -(cells - coins) / 2;
+
+            // Neither player can win any more
+            if (coins >= cells - 2)
+                return 0;
+
+            // The opponent can't win with their next move
+            int min = -(cells - 2 - coins) / 2;
+            if (alpha < min) {
+                alpha = min;
+                if (alpha >= beta)
+                    return alpha;
+            }
 
-    private int[] actionPriority(long thisBoard, long thatBoard, long commonBoard, long[] actions) {
-        long hash = hashBoard(thisBoard, thatBoard);
+            // We can't win with our next move
+            int max = (cells - 1 - coins) / 2;
+            long key = key(board);
+            int value = get(key);
+            if (value != 0)
+                max = value + minScore - 1;
+
+            if (beta > max) {
+                beta = max;
+                if (alpha >= beta)
+                    return beta;
+            }
 
-        // Check cache
-        if (actionCache.containsKey(hash))
-            return actionCache.get(hash);
+            order(n, coins);
+            int player = board.toMove();
 
-        int[] actionPriority = new int[width];
-        int[] heuristics = new int[width];
-        int block = -1;
+            for (int i = 0; i < n; i++) {
+                board.play(moves[i], player);
+                int score = -negamax(-beta, -alpha);
+                board.undo(moves[i], player);
 
-        for (int x = 0; x < width; x++) {
-            long action = actions[x];
+                if (score >= beta)
+                    return score;
 
-            // Skip invalid actions
-            if (!isValid(action))
-                continue;
+                if (score > alpha)
+                    alpha = score;
+            }
 
-            heuristics[x] = h(thisBoard, thatBoard, action, x);
+            put(key, alpha - minScore + 1);
+            return alpha;
+        }
 
-            // Return immediately on a win
-            if (hasFourConnected(thisBoard | action)) {
-                actionPriority = new int[]{x};
-                actionCache.put(hash, actionPriority);
-                return actionPriority;
+        /**
+         * Sorts the given number of moves on the move stack, the ones creating most threats first.
+         *
+         * @return The number of moves.
+         */
+        private int order(int n, int coins) {
+            int[] moves = this.moves[coins];
+            int[] scores = this.scores[coins];
+
+            for (int i = 0; i < n; i++) {
+                int x = moves[i];
+
+                // Keeping the center first among equal moves
+                int score = board.threatsAfter(x) * width + width - 1 - columnRank[x];
+
+                // Insertion sort
+                int j = i;
+                for (; j > 0 && scores[j - 1] < score; j--) {
+                    moves[j] = moves[j - 1];
+                    scores[j] = scores[j - 1];
+                }
+
+                moves[j] = x;
+                scores[j] = score;
             }
 
-            // Save a block to allow returning wins first
-            if (hasFourConnected(thatBoard | action))
-                block = x;
+            return n;
         }
 
-        // If any blocks found return
-        if (block >= 0) {
-            actionPriority = new int[]{block};
-            actionCache.put(hash, actionPriority);
-            return actionPriority;
-        }
+        /**
+         * Describe the result of a solved position with the given number of coins.
+         */
+        private String describe(int score, int coins) {
+            if (score == 0)
+                return "draw";
 
-        // Selection sort-of
-        for (int i = 0; i < width; i++) {
-            int maxI = 0;
-            int max = Integer.MIN_VALUE;
+            // The number of coins on the board before the winning move, which is played by us on a win
+            int before = cells + 1 - 2 * Math.abs(score);
+            if ((before - coins + (score < 0 ? 1 : 0)) % 2 != 0)
+                before--;
 
-            for (int x = 0; x < width; x++)
-                if (heuristics[x] > max)
-                    max = heuristics[maxI = x];
+            int plies = before + 1 - coins;
+
+            return (score > 0 ? "win" : "loss") + " in " + plies + " plies";
+        }
 
-            heuristics[actionPriority[i] = maxI] = Integer.MIN_VALUE;
+        private int get(long key) {
+            int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+            return keys[i] == key ? values[i] : 0;
         }
 
-        actionCache.put(hash, actionPriority);
-        return actionPriority;
+        private void put(long key, int value) {
+            int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+            keys[i] = key;
+            values[i] = (short) value;
+        }
     }
 
-    private long[] actions(long commonBoard) {
-        long[] actions = new long[width];
-        commonBoard += bottom;
+    // endregion
 
-        for (int x = 0; x < width; x++)
-            actions[x] = commonBoard & (col1 << (x * height1));
 
-        return actions;
-    }
+    // region MiniMax
 
-    private boolean terminalTest(long maxBoard, long minBoard, long commonBoard) {
-        return hasFourConnected(maxBoard) ||
-               hasFourConnected(minBoard) ||
-               isTie(commonBoard);
+    private boolean terminalTest(BitBoard board) {
+        return board.hasFourConnected(PLAYER1) ||
+               board.hasFourConnected(PLAYER2) ||
+               board.isTie();
     }
 
-    private int utility(long maxBoard, long minBoard, long commonBoard, int depth) {
-        if (hasFourConnected(maxBoard)) return WIN + depth;
-        if (hasFourConnected(minBoard)) return LOSS + depth;
-        if (isTie(commonBoard)) return TIE;
+    /**
+     * The score of a terminal state from the point of view of the player to move.
+     * Faster wins and slower losses are preferred.
+     */
+    private int utility(BitBoard board, int depth) {
+        int player = board.toMove();
+
+        if (board.hasFourConnected(player)) return WIN - depth;
+        if (board.hasFourConnected(3 - player)) return LOSS + depth;
+        if (board.isTie()) return TIE;
         throw new RuntimeException("Utility function was called for a non-terminal state");
     }
 
-    private int eval(long thisBoard, long thatBoard, long commonBoard, int depth) {
-        int eval1 = eval1(thisBoard, thatBoard, commonBoard) * 2;
-        int eval2 = eval2(thisBoard, thatBoard, commonBoard) * 5;
+    // region Transposition table
+
+    /**
+     * The key of a position in the table, the solver and the opening book.
+     *
+     * A position and its mirror image have the same value, so they share the smaller of their keys. The keys of
+     * a WideBoard are hashes, so the rare positions that share one also share their entries, which the table,
+     * the solver and the book all accept, as telling them apart would take a copy of the board in every entry.
+     */
+    private long key(BitBoard board) {
+        long key = board.key();
+
+        return symmetry ? Math.min(key, board.mirroredKey()) : key;
+    }
+
+    /**
+     * Check if the key of a position is that of its mirror image.
+     */
+    private boolean isMirrored(BitBoard board, long key) {
+        return key != board.key();
+    }
+
+    /**
+     * Mirror a move if the position is mirrored - used both ways between positions and their keys.
+     */
+    private int orient(int move, boolean mirrored) {
+        return mirrored && move >= 0 ? width - 1 - move : move;
+    }
+
+    /**
+     * Save a search result in the transposition table along with the bound type.
+     */
+    private void store(long key, int v, int alpha, int beta, int depth, int cutoff, int bestX) {
+        int bound = v <= alpha ? TranspositionTable.UPPER :
+                    v >= beta  ? TranspositionTable.LOWER :
+                                 TranspositionTable.EXACT;
+
+        table.store(key, toTable(v, depth), bound, cutoff - depth, bestX);
+    }
+
+    /**
+     * Win and loss scores depend on the depth from the root, so store them relative to the position.
+     * Wins lose a point and losses gain one with every ply, so the depth moves them in opposite directions.
+     */
+    private int toTable(int score, int depth) {
+        return isWinOrLoss(score) ? score + (score > 0 ? depth : -depth) : score;
+    }
+
+    private int fromTable(int score, int depth) {
+        return isWinOrLoss(score) ? score - (score > 0 ? depth : -depth) : score;
+    }
+
+    private boolean isWinOrLoss(int score) {
+        return score >= WIN / 2 || score <= LOSS / 2;
+    }
+
+    // endregion
+
+    private int eval(BitBoard board) {
+        int eval1 = eval1(board) * 2;
+        int eval2 = eval2(board) * 5;
 
         return eval1 + eval2;
 
@@ -471,12 +2114,19 @@ public class GameLogic implements IGameLogic {
         return value;*/
     }
 
-    private int eval1(long thisBoard, long thatBoard, long commonBoard) {
+    private int eval1(BitBoard board) {
+        int player = board.toMove();
         int value = 0;
 
-        for (long mask : winnerMasks) {
-            int thisCount = Long.bitCount(thisBoard & mask);
-            int thatCount = Long.bitCount(thatBoard & mask);
+        for (int[] line : lineCells) {
+            int thisCount = 0;
+            int thatCount = 0;
+
+            for (int cell : line) {
+                int coin = board.player(cell);
+                if (coin == player) thisCount++;
+                else if (coin != 0) thatCount++;
+            }
 
             if (thisCount > 0 && thatCount == 0) {
                 value += 1 << thisCount * 2;
@@ -489,17 +2139,26 @@ public class GameLogic implements IGameLogic {
         return value;
     }
 
-    private int eval2(long thisBoard, long thatBoard, long commonBoard) {
-        long free = all1 ^ (commonBoard | top);
-        long thisThreats = threats(thisBoard, free);
-        long thatThreats = threats(thatBoard, free);
+    private int eval2(BitBoard board) {
+        int player = board.toMove();
 
-        int thisEven = Long.bitCount(thisThreats & even);
-        int thisOdd = Long.bitCount(thisThreats & odd);
-        int thatEven = Long.bitCount(thatThreats & even);
-        int thatOdd = Long.bitCount(thatThreats & odd);
+        board.countThreats(player, thisThreats);
+        board.countThreats(3 - player, thatThreats);
+
+        return evalThreats(thisThreats, thatThreats, board.coins());
+    }
+
+    /**
+     * eval2() of the given numbers of threats on the first, third, ... and on the second, fourth, ... row,
+     * favouring threats on rows where the player will eventually get to play.
+     */
+    private int evalThreats(int[] thisThreats, int[] thatThreats, int coins) {
+        int thisOdd = thisThreats[0];
+        int thisEven = thisThreats[1];
+        int thatOdd = thatThreats[0];
+        int thatEven = thatThreats[1];
 
-        if (Long.bitCount(commonBoard) % 2 == 0) {
+        if (coins % 2 == 0) {
             // player 1 turn
             return (3*thisOdd+thisEven)-(2*thatEven+thatOdd);
         } else {
@@ -508,245 +2167,89 @@ public class GameLogic implements IGameLogic {
         }
     }
 
-    private int eval3(long thisBoard, long thatBoard, long commonBoard) {
-        long free = all1 ^ (commonBoard | top);
-        long thisThreats = threats(thisBoard, free);
-        long thatThreats = threats(thatBoard, free);
-
-        for (long mask : winnerMasks) {
-
-            //if (thisCount == 3) {
-            //    long threat = thisThreats & mask;
-            //    int column = (int) (Math.log(threat)/Math.log(2)) / height1;
-            //    long below = (free + threat) & col1 << (column * height1);
-//
-            //    value -= below << 1;
-            //}
-//
-//
-            //if (thatCount == 3) {
-            //    long threat = thatThreats & mask;
-            //    int column = (int) (Math.log(threat)/Math.log(2)) / height1;
-            //    long below = (free + threat) & col1 << (column * height1);
-//
-            //    value += below << 1;
-            //}
-        }
-
-        return 0;
-    }
-
-    private long hashBoard(long thisBoard, long thatBoard) {
-        return ((thisBoard + thatBoard) * (thisBoard + thatBoard + 1) >> 1) + thatBoard;
-    }
-
     // endregion
 
     // region Heuristics
 
-    private int h(long thisBoard, long thatBoard, long action, int column) {
-        long thisNextBoard = thisBoard | action;
-
-        return
-            // Check for free-ended trebles
-            (hTreblesFreeEnded(thisNextBoard, thatBoard) << 16) +
-            // Check for trebles with holes
-            (hTreblesWithHoles(thisNextBoard, thatBoard) << 14) +
-            // Check for double-free ended pairs
-            (hPairsDoubleFreeEnded(thisNextBoard, thatBoard) << 12) +
-            // Check for free-ended pairs
-            (hPairsFreeEnded(thisNextBoard, thatBoard) << 8) +
-            // Check for trebles
-            (hTrebles(thisNextBoard) << 4) +
-            // Check for pairs
-            (hPairs(thisNextBoard) << 0) +
-            // Check column
-            hColumn(column);
-    }
-
-    private int hColumn(int column) {
-        return column > width / 2 ? width - column - 1 : column;
-    }
-
-    private int hPairs(long bitboard) {
-        long a = bitboard & bitboard >> height;
-        long b = bitboard & bitboard >> height1;
-        long c = bitboard & bitboard >> height2;
-        long d = bitboard & bitboard >> 1;
-
-        return Long.bitCount(a) +
-               Long.bitCount(b) +
-               Long.bitCount(c) +
-               Long.bitCount(d);
-    }
-
-    private int hPairsFreeEnded(long bitboard1, long bitboard2) {
-        long a = bitboard1 & bitboard1 >> height;
-        long b = bitboard1 & bitboard1 >> height1;
-        long c = bitboard1 & bitboard1 >> height2;
-        long d = bitboard1 & bitboard1 >> 1;
-
-        // Find all possibly free spots - not top/opponent's coins
-        long free = all1 ^ (bitboard2 | top);
-
-        return Long.bitCount(a & free >> 2 * height) +
-               Long.bitCount(b & free >> 2 * height1) +
-               Long.bitCount(c & free >> 2 * height2) +
-               Long.bitCount(d & free >> 2 * 1) +
-               Long.bitCount(free & a >> height) +
-               Long.bitCount(free & b >> height1) +
-               Long.bitCount(free & c >> height2);
-    }
-
-    private int hPairsDoubleFreeEnded(long thisBoard, long thatBoard) {
-        long a = thisBoard & thisBoard >> height;
-        long b = thisBoard & thisBoard >> height1;
-        long c = thisBoard & thisBoard >> height2;
-        long d = thisBoard & thisBoard >> 1;
-
-        // Find all possibly free spots - not top/opponent's coins
-        long free = all1 ^ (thisBoard | thatBoard | top);
-
-        long a2 = free & free >> height;
-        long b2 = free & free >> height1;
-        long c2 = free & free >> height2;
-        long d2 = free & free >> 1;
-
-        return Long.bitCount(a & a2 >> 2 * height) +
-               Long.bitCount(b & b2 >> 2 * height1) +
-               Long.bitCount(c & c2 >> 2 * height2) +
-               Long.bitCount(d & d2 >> 2 * 1) +
-               Long.bitCount(a2 & a >> height) +
-               Long.bitCount(b2 & b >> height1) +
-               Long.bitCount(c2 & c >> height2);
-    }
-
-    private int hTrebles(long bitboard) {
-        long a = bitboard & bitboard >> height;
-        long b = bitboard & bitboard >> height1;
-        long c = bitboard & bitboard >> height2;
-        long d = bitboard & bitboard >> 1;
-
-        return Long.bitCount(a & a >> height) +
-               Long.bitCount(b & b >> height1) +
-               Long.bitCount(c & c >> height2) +
-               Long.bitCount(d & d >> 1);
-    }
-
-    private int hTreblesFreeEnded(long bitboard1, long bitboard2) {
-        long a = bitboard1 & bitboard1 >> height;
-        long b = bitboard1 & bitboard1 >> height1;
-        long c = bitboard1 & bitboard1 >> height2;
-        long d = bitboard1 & bitboard1 >> 1;
-
-        a = a & a >> height;
-        b = b & b >> height1;
-        c = c & c >> height2;
-        d = d & d >> 1;
-
-        // Find all possibly free spots - not top/opponent's coins
-        long free = all1 ^ (bitboard2 | top);
-
-        return Long.bitCount(a & free >> 3 * height) +
-               Long.bitCount(b & free >> 3 * height1) +
-               Long.bitCount(c & free >> 3 * height2) +
-               Long.bitCount(d & free >> 3 * 1) +
-               Long.bitCount(free & a >> height) +
-               Long.bitCount(free & b >> height1) +
-               Long.bitCount(free & c >> height2);
-    }
-
     /**
-     * Searches for XX_X
+     * The pattern heuristics of playing in the column for the player to move, and the column.
      */
-    private int hTreblesWithHoles(long bitboard1, long bitboard2) {
-        // XX
-        long a = bitboard1 & bitboard1 >> height;
-        long b = bitboard1 & bitboard1 >> height1;
-        long c = bitboard1 & bitboard1 >> height2;
-
-        // Find all possibly free spots - not top/opponent's coins
-        long free = all1 ^ (bitboard2 | top);
-
-        // _X
-        long fa = free & bitboard1 >> height;
-        long fb = free & bitboard1 >> height1;
-        long fc = free & bitboard1 >> height2;
-
-        // X_
-        long af = bitboard1 & free >> height;
-        long bf = bitboard1 & free >> height1;
-        long cf = bitboard1 & free >> height2;
-
-        return Long.bitCount(a & fa >> 2 * height) +
-               Long.bitCount(b & fb >> 2 * height1) +
-               Long.bitCount(c & fc >> 2 * height2) +
-               Long.bitCount(af & a >> 2 * height) +
-               Long.bitCount(bf & b >> 2 * height1) +
-               Long.bitCount(cf & c >> 2 * height2);
+    private int h(BitBoard board, int column) {
+        return board.patterns(column) + hColumn(column);
     }
 
-    private int hQuad(long bitboard) {
-        long a = bitboard & bitboard >> height;
-        long b = bitboard & bitboard >> height1;
-        long c = bitboard & bitboard >> height2;
-        long d = bitboard & bitboard >> 1;
-
-        return Long.bitCount(a & a >> 2 * height) +  // check diagonal   \
-               Long.bitCount(b & b >> 2 * height1) + // check horizontal -
-               Long.bitCount(c & c >> 2 * height2) + // check diagonal   /
-               Long.bitCount(d & d >> 2 * 1);        // check vertical   |
+    private int hColumn(int column) {
+        return column > width / 2 ? width - column - 1 : column;
     }
 
     /**
-     * Generate masks representing all possible ways to get four connected
+     * Generate the cells of all possible ways to get four connected
      */
-    public long[] initWinnerMasks() {
+    public int[][] initLines() {
         int i = 0;
-        int size = height * (width - 3) + (height - 3) * width + 2 * (height - 3) * (width - 3);
-        long[] winnerMasks = new long[size];
+        // Boards narrower or lower than four have no lines in that direction
+        int across = Math.max(0, width - 3);
+        int up = Math.max(0, height - 3);
+        int size = height * across + up * width + 2 * up * across;
+        int[][] lines = new int[size][];
 
         // Horizontal
-        long mask = 0L;
-        for (int j = 0; j < 4; j++)
-            mask |= 1L << j * height1;
-
         for (int y = 0; y < height; y++)
             for (int x = 0; x < width - 3; x++)
-                winnerMasks[i++] = (mask << (x * height1)) << y;
+                lines[i++] = line(x, y, height1);
 
 
         // Vertical
-        mask = 0L;
-        for (int j = 0; j < 4; j++)
-            mask |= 1L << j * 1;
-
         for (int y = 0; y < height - 3; y++)
             for (int x = 0; x < width; x++)
-                winnerMasks[i++] = (mask << (x * height1)) << y;
+                lines[i++] = line(x, y, 1);
 
 
         // Diagonal /
-        mask = 0L;
-        for (int j = 0; j < 4; j++)
-            mask |= 1L << j * height2;
-
         for (int y = 0; y < height - 3; y++)
             for (int x = 0; x < width - 3; x++)
-                winnerMasks[i++] = (mask << (x * height1)) << y;
+                lines[i++] = line(x, y, height2);
 
 
         // Diagonal \
-        mask = 0L;
-        for (int j = 0; j < 4; j++)
-            mask |= 1L << j * height;
-
         for (int y = 3; y < height; y++)
             for (int x = 0; x < width - 3; x++)
-                winnerMasks[i++] = (mask << (x * height1)) << y;
+                lines[i++] = line(x, y, height);
+
+
+        return lines;
+    }
+
+    /**
+     * The cells of a line of four starting in the given column and row, the given number of cells apart.
+     */
+    private int[] line(int x, int y, int step) {
+        int[] line = new int[4];
+        for (int j = 0; j < 4; j++)
+            line[j] = x * height1 + y + j * step;
+        return line;
+    }
+
+    /**
+     * For each cell, the indices of the lines containing it.
+     */
+    private int[][] initCellLines() {
+        int[][] cellLines = new int[width * height1][];
+        int[] counts = new int[cellLines.length];
 
+        for (int[] line : lineCells)
+            for (int cell : line)
+                counts[cell]++;
 
-        return winnerMasks;
+        for (int cell = 0; cell < cellLines.length; cell++)
+            cellLines[cell] = new int[counts[cell]];
+
+        Arrays.fill(counts, 0);
+        for (int line = 0; line < lineCells.length; line++)
+            for (int cell : lineCells[line])
+                cellLines[cell][counts[cell]++] = line;
+
+        return cellLines;
     }
 
     public short[] getFrequency() {
@@ -788,100 +2291,4 @@ public class GameLogic implements IGameLogic {
     }
 
     // endregion
-
-
-    private long threats(long bitboard, long free) {
-        long threats = 0L;
-
-        // Diagonal \
-        long aa = bitboard & bitboard >> height;
-        long fa = free     & bitboard >> height;
-        long af = free     & bitboard << height;
-
-        threats |= fa & aa >> 2 * height;
-        threats |= af & aa >> 1 * height;
-        threats |= fa & aa << 2 * height;
-        threats |= af & aa << 3 * height;
-
-
-        // Horizontal -
-        long bb = bitboard & bitboard >> height1;
-        long fb = free     & bitboard >> height1;
-        long bf = free     & bitboard << height1;
-
-        threats |= fb & bb >> 2 * height1;
-        threats |= bf & bb >> 1 * height1;
-        threats |= fb & bb << 2 * height1;
-        threats |= bf & bb << 3 * height1;
-
-
-        // Diagonal /
-        long cc = bitboard & bitboard >> height2;
-        long fc = free     & bitboard >> height2;
-        long cf = free     & bitboard << height2;
-
-        threats |= fc & cc >> 2 * height2;
-        threats |= cf & cc >> 1 * height2;
-        threats |= fc & cc << 2 * height2;
-        threats |= cf & cc << 3 * height2;
-
-        // Vertical |
-        long dd = bitboard & bitboard << 1;
-        long df = free     & bitboard << 1;
-
-        threats |= df & dd << 2;
-
-        // Return the threats board now containing 1's in all the places we have threats
-        return threats;
-    }
-
-    // region Visualization
-
-    private long fromString(String string) {
-        long bitboard = 0L;
-        String[] rows = string.split("\n");
-        for (int y = 0; y < height; y++) {
-            String[] cells = rows[y].split(" ");
-            for (int x = 0; x < width; x++) {
-                if (cells[x].equalsIgnoreCase("x")) {
-                    bitboard |= 1L << (height - 1 - y) + height1 * x;
-                }
-            }
-        }
-        return bitboard;
-    }
-
-    private String toString(long bitboard) {
-        String s = "";
-
-        for (int y = 0; y < height; y++) {
-            long row = bitboard >> height - 1 - y;
-            for (int x = 0; x < width; x++) {
-                s += (row & 1L) != 0 ? "X " : ". ";
-                row >>= height1;
-            }
-            s += '\n';
-        }
-
-        return s;
-    }
-
-    private String toString(long bitboard1, long bitboard2) {
-        String s = "";
-
-        for (int y = 0; y < height; y++) {
-            long row1 = bitboard1 >> height - 1 - y;
-            long row2 = bitboard2 >> height - 1 - y;
-            for (int x = 0; x < width; x++) {
-                s += " " + ((row1 & 1L) != 0 ? "X" : ((row2 & 1L) != 0 ? "O" : "."));
-                row1 >>= height1;
-                row2 >>= height1;
-            }
-            s += '\n';
-        }
-
-        return s;
-    }
-
-    // endregion
 }
@@ -0,0 +1,233 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hosts games against an engine for many clients at once on a loopback socket.
+ *
+ * Every connection is a session with its own game logic, served by its own thread, which spends its
+ * time waiting for the client. The searches of all sessions share a fixed pool of threads, one per
+ * core by default, so the engine moves queue up instead of competing for the cores.
+ *
+ * The protocol is line based, the client sends
+ *  NEW cols rows player   start a game, where the client is the given player (1 moves first)
+ *  MOVE column            drop a coin
+ *  QUIT                   close the session
+ * and the server answers each NEW or MOVE with
+ *  MOVE column            the engine's move, the client is to move
+ *  END winner [column]    the game is over, after the engine's move, if it made the last one
+ *  OK                     the game is started and the client is to move
+ *  ERR message            the request was invalid and ignored, e.g. a board of more than 16 columns,
+ *                         32 rows or 256 cells
+ *
+ * Usage: java GameServer [port] [searchThreads] [moveMillis] [tableBits] [GameLogic]
+ */
+public class GameServer {
+    // region Fields
+
+    private final ExecutorService searchPool;
+    private final ExecutorService sessionPool = Executors.newCachedThreadPool();
+    private final String engine;
+    private final long moveMillis;
+    private final int tableBits;
+
+    // The biggest board a client may start a game on, as the memory and the first move of the engine grow quickly with it
+    private static final int MAX_COLS = 16;
+    private static final int MAX_ROWS = 32;
+    private static final int MAX_CELLS = 256;
+
+    // The console, for the server's own messages
+    private final PrintStream console;
+    private final AtomicInteger sessions = new AtomicInteger();
+
+    /// endregion
+
+    public GameServer(int searchThreads, long moveMillis, int tableBits, String engine, PrintStream console) {
+        this.searchPool = Executors.newFixedThreadPool(searchThreads);
+        this.moveMillis = moveMillis;
+        this.tableBits = tableBits;
+        this.engine = engine;
+        this.console = console;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port          = args.length >= 1 ? Integer.parseInt(args[0]) : 4000;
+        int searchThreads = args.length >= 2 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long moveMillis   = args.length >= 3 ? Long.parseLong(args[2]) : 1000;
+        int tableBits     = args.length >= 4 ? Integer.parseInt(args[3]) : 16;
+        String engine     = args.length >= 5 ? args[4] : "GameLogic";
+
+        if (ShowGame.parseGameLogicParam(engine) == null)
+            throw new IllegalArgumentException("The server has no human players");
+
+        PrintStream console = ShowGame.silenceConsole();
+
+        GameServer server = new GameServer(searchThreads, moveMillis, tableBits, engine, console);
+        server.serve(port);
+    }
+
+    /**
+     * Accept sessions on the loopback interface until the process is stopped.
+     */
+    public void serve(int port) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress())) {
+            console.println("Serving " + engine + " on port " + serverSocket.getLocalPort());
+
+            while (true) {
+                final Socket socket = serverSocket.accept();
+                sessionPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        new Session(socket).run();
+                    }
+                });
+            }
+        }
+    }
+
+    private class Session {
+        private final Socket socket;
+        private IGameLogic logic;
+        // Keeps the board independently of the engine
+        private IGameLogic referee;
+        private int[] heights;
+        private int cols, rows;
+        private int client;
+
+        Session(Socket socket) {
+            this.socket = socket;
+        }
+
+        void run() {
+            int id = sessions.incrementAndGet();
+
+            try (Socket s = socket;
+                 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), "UTF-8"));
+                 PrintWriter out = new PrintWriter(s.getOutputStream(), true)) {
+                s.setTcpNoDelay(true);
+
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] words = line.trim().split("\\s+");
+                    String command = words[0].toUpperCase();
+
+                    if (command.equals("QUIT"))
+                        break;
+
+                    try {
+                        if (command.equals("NEW") && words.length == 4)
+                            out.println(start(Integer.parseInt(words[1]), Integer.parseInt(words[2]), Integer.parseInt(words[3])));
+                        else if (command.equals("MOVE") && words.length == 2)
+                            out.println(move(Integer.parseInt(words[1])));
+                        else
+                            out.println("ERR unknown request " + line);
+                    } catch (NumberFormatException e) {
+                        out.println("ERR not a number in " + line);
+                    } catch (RuntimeException e) {
+                        out.println("ERR " + e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                console.println("Session " + id + " failed: " + e);
+            } catch (Exception e) {
+                console.println("Session " + id + " failed: " + e);
+                e.printStackTrace(console);
+            } finally {
+                sessions.decrementAndGet();
+
+                // Let the engine's threads and table go with the session
+                if (logic instanceof GameLogic)
+                    ((GameLogic) logic).close();
+            }
+        }
+
+        private String start(int cols, int rows, int client) throws Exception {
+            if (client != 1 && client != 2)
+                throw new IllegalArgumentException("The player must be 1 or 2");
+            if (cols < 1 || rows < 1)
+                throw new IllegalArgumentException("The board must have a cell");
+            if (cols > MAX_COLS || rows > MAX_ROWS || cols * rows > MAX_CELLS)
+                throw new IllegalArgumentException("The board may have at most " + MAX_COLS + " columns, " + MAX_ROWS +
+                        " rows and " + MAX_CELLS + " cells");
+
+            this.cols = cols;
+            this.rows = rows;
+            this.client = client;
+            heights = new int[cols];
+
+            referee = new RandomGameLogic();
+            referee.initializeGame(cols, rows, 1);
+
+            // The engine is created once per session, so its tables are reused by the following games
+            if (logic == null) {
+                logic = ShowGame.parseGameLogicParam(engine);
+
+                if (logic instanceof GameLogic) {
+                    ((GameLogic) logic).setTableBits(tableBits);
+                    ((GameLogic) logic).setTimeControl(moveMillis, Long.MAX_VALUE);
+                }
+            }
+
+            logic.initializeGame(cols, rows, 3 - client);
+
+            return client == 1 ? "OK" : reply();
+        }
+
+        private String move(int column) throws Exception {
+            if (referee == null || referee.gameFinished() != IGameLogic.Winner.NOT_FINISHED)
+                throw new IllegalStateException("No game is being played");
+            if (column < 0 || column >= cols || heights[column] == rows)
+                throw new IllegalArgumentException("Invalid move " + column);
+
+            play(column, client);
+
+            if (referee.gameFinished() != IGameLogic.Winner.NOT_FINISHED)
+                return "END " + referee.gameFinished();
+
+            return reply();
+        }
+
+        /**
+         * Let the engine move on the search pool.
+         */
+        private String reply() throws Exception {
+            int column;
+            try {
+                column = searchPool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return logic.decideNextMove();
+                    }
+                }).get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("The engine failed: " + e.getCause());
+            }
+
+            if (column < 0 || column >= cols || heights[column] == rows)
+                throw new IllegalStateException("The engine made an invalid move " + column);
+
+            play(column, 3 - client);
+
+            if (referee.gameFinished() != IGameLogic.Winner.NOT_FINISHED)
+                return "END " + referee.gameFinished() + " " + column;
+
+            return "MOVE " + column;
+        }
+
+        private void play(int column, int player) {
+            heights[column]++;
+            referee.insertCoin(column, player);
+            logic.insertCoin(column, player);
+        }
+    }
+}
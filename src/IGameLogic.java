@@ -1,3 +1,7 @@
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
 /**
  * @author Kevin Tierney
  * @author Mai Ajspur
@@ -47,4 +51,77 @@ public interface IGameLogic {
      * @return Winner enum
      */
     Winner gameFinished();
+
+
+    /**
+     * Starts deciding the next move in the background, so the caller gives the time the move may take,
+     * can follow the best move as the search improves it, and can cancel the search. The game logic must
+     * not be told about moves until the decision is done or cancelled.
+     *
+     * By default decideNextMove() is called on a thread of its own. It can't be made to keep the time,
+     * it is only interrupted when cancelled, and the listener is only told about the move it decides on.
+     *
+     * @param millis   The time the move may take, after which the best move found is the answer.
+     * @param listener Told about every new best move, or null.
+     * @return The move. Cancelling it with interruption stops the search.
+     */
+    default Future<Integer> decideNextMove(long millis, final Listener listener) {
+        return Decision.start(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                int move = decideNextMove();
+
+                if (listener != null)
+                    listener.improved(move, 0);
+                return move;
+            }
+        }, getClass().getSimpleName());
+    }
+
+
+    /**
+     * Told about the best move found so far, on the thread searching for it.
+     */
+    interface Listener {
+        /**
+         * @param column The best move so far.
+         * @param depth  The depth it was found at, or 0 if unknown.
+         */
+        void improved(int column, int depth);
+    }
+
+    /**
+     * A move decided on a daemon thread of its own. Cancelling it with interruption waits until the
+     * engine has stopped, so the game logic may be used again right away.
+     */
+    class Decision extends FutureTask<Integer> {
+        private final Thread thread;
+
+        private Decision(Callable<Integer> callable, String name) {
+            super(callable);
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        public static Decision start(Callable<Integer> callable, String name) {
+            Decision decision = new Decision(callable, name);
+            decision.thread.start();
+            return decision;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+            if (cancelled && mayInterruptIfRunning) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            return cancelled;
+        }
+    }
 }
@@ -1,5 +1,8 @@
 
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 
 public class JobreMarm implements IGameLogic {
@@ -9,6 +12,14 @@ public class JobreMarm implements IGameLogic {
     private final int CUTOFF = 20;
     private int x;
     private int y;
+    // When to stop the current search, and whether it was stopped
+    private long deadline;
+    private boolean stopped;
+    private long nodes;
+    // The score of the move found by the last pass
+    private int score;
+    // Right, up, right-up and right-down - only read, so every board may share them
+    private static final int[][] DIRECTIONS = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
     
     
     
@@ -40,43 +51,111 @@ public class JobreMarm implements IGameLogic {
     
 
     public int decideNextMove() {
-        int cutoff = (int)(CUTOFF*.2 + (CUTOFF*.8*(turnsTaken/(1.*x*y))));
+        int cutoff = cutoff();
         StdOut.println("Cutoff: " + cutoff);
-        return alphaBetaCutOff(cutoff);
+        return deepen(cutoff, cutoff, Long.MAX_VALUE, null);
+    }
+
+    // Deepens up to the cutoff of decideNextMove(), as long as there is time
+    public Future<Integer> decideNextMove(long millis, final Listener listener) {
+        final long deadline = System.nanoTime() + millis * 1000000L;
+        return Decision.start(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return deepen(1, cutoff(), deadline, listener);
+            }
+        }, "JobreMarm");
+    }
+
+    private int cutoff() {
+        return (int)(CUTOFF*.2 + (CUTOFF*.8*(turnsTaken/(1.*x*y))));
+    }
+
+    // Searches with increasing cutoffs, keeping the move of the last pass that wasn't stopped
+    private int deepen(int from, int to, long deadline, Listener listener) {
+        MoveDecisionEvent event = FlightEvents.startMove();
+        long start = System.nanoTime();
+        this.deadline = deadline;
+        stopped = false;
+        nodes = 0;
+        int move = -1;
+        int depth = 0;
+        for (int cutoff = from; cutoff <= to; cutoff++) {
+            SearchPassEvent pass = FlightEvents.startPass();
+            long passNodes = nodes;
+            int action = alphaBetaCutOff(cutoff);
+            if (stopped) break;
+            move = action;
+            depth = cutoff;
+            FlightEvents.commitPass(pass, "JobreMarm", cutoff, score, move, nodes - passNodes);
+            if (listener != null) listener.improved(move, cutoff);
+        }
+        // Not even the first pass was done in time
+        if (move < 0)
+            for (int a = 0; a < x && move < 0; a++)
+                if (!board.columnFull(a)) move = a;
+        FlightEvents.commitMove(event, "JobreMarm", move, depth, nodes,
+                deadline == Long.MAX_VALUE ? 0 : (deadline - start) / 1000000L,
+                !stopped ? "max depth" : Thread.currentThread().isInterrupted() ? "cancelled" : "hard limit");
+        return move;
+    }
+
+    // The nodes visited by the last search
+    long nodes() {
+        return nodes;
+    }
+
+    // Counts the node, and stops when the time is up or the search is cancelled, looking at the clock now and then only
+    private boolean stopped() {
+        if ((++nodes & 1023) == 0 && (System.nanoTime() > deadline || Thread.currentThread().isInterrupted()))
+            stopped = true;
+        return stopped;
     }
 
     private int alphaBetaCutOff(int cutoff) {
         int returnAction = -1;
         int max = Integer.MIN_VALUE;
-        for (int a : board.actions()) {
-            int res=this.minValue(board.result(a, playerID), Integer.MIN_VALUE, Integer.MAX_VALUE, cutoff);
+        for (int a = 0; a < x; a++) {
+            if (board.columnFull(a)) continue;
+            board.make(a, playerID);
+            int res=this.minValue(Integer.MIN_VALUE, Integer.MAX_VALUE, cutoff);
+            board.unmake(a);
+            if (stopped) return -1;
             System.out.println(res);
             if (res > max) {
-                if(res==10000) return a; //We will be winning THIS turn!
+                if(res==10000) { score = res; return a; } //We will be winning THIS turn!
                 returnAction = a;
                 max = res;
             }
         }
         System.out.println(max);
+        score = max;
         return returnAction;
     }
     
-    private int maxValue(Board board, int alpha, int beta, int cutoff) {
-        if(board.terminalTest() || cutoff == 0) return ((Board)board).utility();
+    // The search plays and takes back moves on the one board instead of copying it
+    private int maxValue(int alpha, int beta, int cutoff) {
+        if(stopped() || board.terminalTest() || cutoff == 0) return board.utility();
         int v = Integer.MIN_VALUE;
-        for(int action : board.actions()){
-            v = Math.max(v, (int)(minValue(board.result(action, playerID), alpha, beta, cutoff-1)*.99));
+        for(int action = 0; action < x; action++){
+            if(board.columnFull(action)) continue;
+            board.make(action, playerID);
+            v = Math.max(v, (int)(minValue(alpha, beta, cutoff-1)*.99));
+            board.unmake(action);
             if(v >= beta) return v;
             alpha = Math.max(alpha, v);
         }   
         return v;
     }
     
-    private int minValue(Board board, int alpha, int beta, int cutoff) {
-        if(board.terminalTest() || cutoff == 0) return ((Board)board).utility();
+    private int minValue(int alpha, int beta, int cutoff) {
+        if(stopped() || board.terminalTest() || cutoff == 0) return board.utility();
         int v = Integer.MAX_VALUE;
-        for(int action : board.actions()){
-            v = Math.min(v, (int)(maxValue(board.result(action, otherPlayer(playerID)), alpha, beta, cutoff-1)*.99));
+        for(int action = 0; action < x; action++){
+            if(board.columnFull(action)) continue;
+            board.make(action, otherPlayer(playerID));
+            v = Math.min(v, (int)(maxValue(alpha, beta, cutoff-1)*.99));
+            board.unmake(action);
             if(v <= alpha) return v;
             beta = Math.min(beta, v);
         }
@@ -90,16 +169,26 @@ public class JobreMarm implements IGameLogic {
         private int y = 0;
         private int playerID;
         private int[][] board;
+        // Number of coins in each column
+        private int[] heights;
         private int slotsLeft;
         private Winner winner = Winner.NOT_FINISHED;
         private final int WINNING_VALUE = 10000;
         
+        // The cells of every line of four, as column * y + row, and for each cell the lines whose
+        // value changes when a coin is dropped in it: the lines through it and through the cell above
+        private int[][] lines;
+        private int[][] affected;
+        // Sum of the values of all lines, kept up to date by make and unmake
+        private int features;
+        
         
         public Board(int x, int y, int playerID) {
             this.x = x;
             this.y = y;
             this.playerID = playerID;
             this.board = new int[x][y];
+            this.heights = new int[x];
             this.slotsLeft = x * y;
             
             
@@ -118,50 +207,87 @@ public class JobreMarm implements IGameLogic {
             uVal[2][0][2] = (int)(.02*WINNING_VALUE);
             uVal[3][1][0] = (int)(.08*WINNING_VALUE);
             uVal[3][0][1] = (int)(.06*WINNING_VALUE);
+            
+            initLines();
+        }
+        
+        private void initLines() {
+            // Lines start in every cell they fit from, going right, up, right-up and right-down
+            int count = 0;
+            for (int[] d : DIRECTIONS)
+                count += Math.max(0, x - 3 * d[0]) * Math.max(0, y - 3 * Math.abs(d[1]));
+            
+            lines = new int[count][4];
+            int[] through = new int[x * y];
+            int l = 0;
+            for (int[] d : DIRECTIONS)
+                for (int i = 0; i < x; i++)
+                    for (int j = 0; j < y; j++) {
+                        if (!insideBoard(i + 3 * d[0], j + 3 * d[1])) continue;
+                        for (int n = 0; n < 4; n++) {
+                            lines[l][n] = (i + n * d[0]) * y + j + n * d[1];
+                            through[lines[l][n]]++;
+                        }
+                        l++;
+                    }
+            
+            affected = new int[x * y][];
+            for (int cell = 0; cell < x * y; cell++) {
+                boolean top = cell % y == y - 1;
+                int[] list = new int[through[cell] + (top ? 0 : through[cell + 1])];
+                int n = 0;
+                for (l = 0; l < lines.length; l++)
+                    if (contains(l, cell) || !top && contains(l, cell + 1))
+                        list[n++] = l;
+                affected[cell] = Arrays.copyOf(list, n);
+            }
+        }
+        
+        private boolean contains(int line, int cell) {
+            for (int c : lines[line])
+                if (c == cell) return true;
+            return false;
         }
         
         public void insertCoin(int column, int playerID) {
-           int row = 0;
+            if (columnFull(column))
+                throw new IllegalArgumentException("There is no space in column " + column);
+            
+            make(column, playerID);
+        }
         
-            while (board[column][row] != 0) 
-            {
-                row++;
-                if(row == y)
-                    throw new IllegalArgumentException("There is no space in column " + column);
-            }
-
+        public void make(int column, int playerID) {
+            int row = heights[column];
+            int[] lines = affected[column * y + row];
+            
+            for (int l : lines) features -= lineValue(l);
             board[column][row] = playerID;
+            heights[column]++;
+            slotsLeft--;
+            for (int l : lines) features += lineValue(l);
 
             //---------- Is there now a winner? ---------------//
-            // reset counts
-            for(Direction d : Direction.values())
-                d.Count = 0;
-
-            // For each possible direction
-            for(Direction d : Direction.values()){
-                // Go a max of 3 out
-                for(int i = 1; i <= 3; i++){
-                    if(     insideBoard(column + d.x * i, row + d.y * i) &&      // If the new coordinate is inside the board
-                            board[column + d.x * i][row + d.y * i] == playerID){ // and the new coordinate is the same color
-                        // increase the count in that direction
-                        d.Count++;
-                    }
-                    // If not we do not want to seek further
-                    else break;
-                }
-            }
-
-            // If any of the combinations are 3 or more then we have a winner
-            if(     (Direction.HL.Count + Direction.HR.Count) >= 3 ||
-                    (Direction.VU.Count + Direction.VD.Count) >= 3 ||
-                    (Direction.DDL.Count + Direction.DUR.Count) >= 3 ||
-                    (Direction.DDR.Count + Direction.DUL.Count) >= 3)
-                    winner = (playerID == 1 ? Winner.PLAYER1 : Winner.PLAYER2);
-
-
+            // Only the last move can have made one
+            if (connectsFour(column, row, playerID))
+                winner = (playerID == 1 ? Winner.PLAYER1 : Winner.PLAYER2);
 
             // If we still have not found a winner, test for Tie.
-            if(winner == Winner.NOT_FINISHED && --slotsLeft == 0) winner = Winner.TIE;
+            if(winner == Winner.NOT_FINISHED && slotsLeft == 0) winner = Winner.TIE;
+        }
+        
+        // Take back the last coin in the column
+        public void unmake(int column) {
+            int row = heights[column] - 1;
+            int[] lines = affected[column * y + row];
+            
+            for (int l : lines) features -= lineValue(l);
+            board[column][row] = 0;
+            heights[column]--;
+            slotsLeft++;
+            for (int l : lines) features += lineValue(l);
+            
+            // The search never goes on from a finished game
+            winner = Winner.NOT_FINISHED;
         }
         
         public boolean insideBoard(int col, int row)
@@ -169,20 +295,25 @@ public class JobreMarm implements IGameLogic {
             return col < x && col >= 0 && row < y && row >= 0;
         }
         
+        // Counts the player's coins in a row through the cell both ways in each direction, in local counters
+        private boolean connectsFour(int column, int row, int playerID) {
+            for (int[] d : DIRECTIONS) {
+                int count = 1;
+                for (int i = 1; i <= 3 && insideBoard(column + d[0] * i, row + d[1] * i) &&
+                        board[column + d[0] * i][row + d[1] * i] == playerID; i++) count++;
+                for (int i = 1; i <= 3 && insideBoard(column - d[0] * i, row - d[1] * i) &&
+                        board[column - d[0] * i][row - d[1] * i] == playerID; i++) count++;
+                if (count >= 4) return true;
+            }
+            return false;
+        }
+        
         public boolean playable(int i, int j) {
-            if(!insideBoard(i, j) || board[i][j] != 0) return false;
-            return (!insideBoard(i, j-1) || board[i][j-1] != 0);
+            return insideBoard(i, j) && heights[i] == j;
         }
         
         public boolean columnFull(int column){
-            int row = 0;
-
-            while (board[column][row] != 0) {
-                row++;
-                if(row == y)
-                    return true;
-            }
-            return false;
+            return heights[column] == y;
         }
 
         public Winner gameFinished() {
@@ -192,167 +323,39 @@ public class JobreMarm implements IGameLogic {
         public boolean terminalTest() {
             return this.gameFinished() != Winner.NOT_FINISHED;
         }
-
-        public int[] actions() {
-            int[] temp = new int[x];
-            int valid = 0;
-            for (int i = 0; i < x; i++) 
-                if(!this.columnFull(i))
-                    temp[valid++] = i;
-            
-            int[] list = new int[valid];
-            for (int i = 0; i < valid; i++) 
-                list[i] = temp[i];
-            
-            return list;
-        }
-
-        public Board result(int column, int playerID) {
-            Board newBoard = this.clone();
-            newBoard.insertCoin(column, playerID);
-            return newBoard;
-        }
-        
-
-        @Override
-        public Board clone() {
-            Board newBoard = new Board(x, y, playerID);
-            newBoard.slotsLeft = this. slotsLeft;
-            newBoard.winner = this.winner;
-            
-            for (int i = 0; i < x; i++) {
-                for (int j = 0; j < y; j++) {
-                    newBoard.board[i][j] = this.board[i][j];
-                }
-            }
-            
-            return newBoard;
-        }
         
         public int utility(){
             if(this.winner != Winner.NOT_FINISHED){
-                if(this.winner == Winner.NOT_FINISHED) return 0;
                 if(this.winner == Winner.TIE) return 0;
                 if((this.winner == Winner.PLAYER1 && this.playerID == 1) ||
                    (this.winner == Winner.PLAYER2 && this.playerID == 2)) return WINNING_VALUE;
                 else return -1*WINNING_VALUE;
             }
             
-            int value = 0;
-            
-            for (int i = 0; i < x; i++) {
-                for (int j = 0; j < y; j++) {
-                    value += checkFeature(i, j);
-                }
-            }
-            
-            return value;
+            return features;
         }
 
-        private int checkFeature(int i, int j) {
-            
-            int value = 0;
-            
-            //Check vertical
-            if(insideBoard(i+3, j)){
-                int[] vector = new int[3];
-                int p = 0;
-                for (int n = 0; n<4; n++) {
-                    int f = board[i+n][j];
-                    if(f == 0) {
-                        if(playable(i+n, j)) vector[1]++;
-                        else vector[2]++;
-                    }
-                    else
-                    {
-                        if(p == 0) p = f;
-                        if(f == p) vector[0]++;
-                        else break;
-                    }
+        // The value of a line for us: the coins of one player in it, and how many of
+        // the empty cells are playable now or later. Lines with both players' coins are worthless.
+        private int lineValue(int line) {
+            int own = 0, playable = 0, later = 0;
+            int p = 0;
+            for (int cell : lines[line]) {
+                int i = cell / y, j = cell % y;
+                int f = board[i][j];
+                if (f == 0) {
+                    if (playable(i, j)) playable++;
+                    else later++;
                 }
-                
-                int factor = (p == playerID) ? 1: -1;
-                value += factor * this.uVal[vector[0]][vector[1]][vector[2]];
-            }
-            
-            //Check horizontal
-            if(insideBoard(i, j+3)){
-                int[] vector = new int[3];
-                int p = 0;
-                for (int n = 0; n<4; n++) {
-                    int f = board[i][j+n];
-                    if(f == 0) {
-                        if(playable(i, j+n)) vector[1]++;
-                        else vector[2]++;
-                    }
-                    else
-                    {
-                        if(p == 0) p = f;
-                        if(f == p) vector[0]++;
-                        else break;
-                    }
+                else {
+                    if (p == 0) p = f;
+                    if (f != p) return 0;
+                    own++;
                 }
-                int factor = (p == playerID) ? 1: -1;
-                value += factor * this.uVal[vector[0]][vector[1]][vector[2]];
             }
             
-            //Check diagonal right-up
-            if(insideBoard(i+3, j+3)){
-                int[] vector = new int[3];
-                int p = 0;
-                for (int n = 0; n<4; n++) {
-                    int f = board[i+n][j+n];
-                    if(f == 0) {
-                        if(playable(i+n, j+n)) vector[1]++;
-                        else vector[2]++;
-                    }
-                    else
-                    {
-                        if(p == 0) p = f;
-                        if(f == p) vector[0]++;
-                        else break;
-                    }
-                }
-                int factor = (p == playerID) ? 1: -1;
-                value += factor * this.uVal[vector[0]][vector[1]][vector[2]];
-            }
-             
-            //Check diagonal right-down
-            if(insideBoard(i+3, j-3)){
-                int[] vector = new int[3];
-                int p = 0;
-                for (int n = 0; n<4; n++) {
-                    int f = board[i+n][j-n];
-                    if(f == 0) {
-                        if(playable(i+n, j-n)) vector[1]++;
-                        else vector[2]++;
-                    }
-                    else
-                    {
-                        if(p == 0) p = f;
-                        if(f == p) vector[0]++;
-                        else break;
-                    }
-                }
-                int factor = (p == playerID) ? 1: -1;
-                value += factor * this.uVal[vector[0]][vector[1]][vector[2]];
-            }
-            
-            return value;
+            int factor = (p == playerID) ? 1: -1;
+            return factor * this.uVal[own][playable][later];
         }
     }
-    
-    public enum Direction {
-            HL(-1, 0), HR(1, 0), VU(0, 1), VD(0, -1), DUR(1, 1), DDL(-1, -1), DUL(1, -1), DDR(-1, 1);
-            
-            public final int x;
-            public final int y;
-            public int Count;
-            
-            Direction(int x, int y)
-            {
-                this.x = x;
-                this.y = y;
-            }
-        }
 }
@@ -0,0 +1,164 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the move latency of a running GameServer as the number of concurrent sessions grows.
+ *
+ * For each number of sessions, that many clients connect at once and play random moves against the
+ * engine, timing every request from sending the move until the engine's answer arrives.
+ *
+ * Usage: java LoadTest [port] [sessions,...] [games] [cols] [rows]
+ */
+public class LoadTest {
+    // region Fields
+
+    private final int port;
+    private final int games;
+    private final int cols, rows;
+
+    /// endregion
+
+    private LoadTest(int port, int games, int cols, int rows) {
+        this.port = port;
+        this.games = games;
+        this.cols = cols;
+        this.rows = rows;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port        = args.length >= 1 ? Integer.parseInt(args[0]) : 4000;
+        String[] levels = (args.length >= 2 ? args[1] : "1,10,100,1000").split(",");
+        int games       = args.length >= 3 ? Integer.parseInt(args[2]) : 1;
+        int cols        = args.length >= 4 ? Integer.parseInt(args[3]) : 7;
+        int rows        = args.length >= 5 ? Integer.parseInt(args[4]) : 6;
+
+        LoadTest test = new LoadTest(port, games, cols, rows);
+
+        StdOut.println("sessions     moves  errors  moves/s   p50 ms   p99 ms   max ms");
+        for (String level : levels)
+            test.run(Integer.parseInt(level.trim()));
+    }
+
+    private void run(int sessions) throws InterruptedException {
+        // Every session records its latencies in its own array, as a game has a bounded number of moves
+        final long[][] latencies = new long[sessions][];
+        final int[] counts = new int[sessions];
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(sessions);
+
+        for (int i = 0; i < sessions; i++) {
+            final int id = i;
+            latencies[id] = new long[games * (cols * rows / 2 + 1)];
+
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        counts[id] = play(id, latencies[id]);
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        int total = 0;
+        for (int count : counts)
+            total += count;
+
+        long[] all = new long[total];
+        int n = 0;
+        for (int i = 0; i < sessions; i++) {
+            System.arraycopy(latencies[i], 0, all, n, counts[i]);
+            n += counts[i];
+        }
+        Arrays.sort(all);
+
+        StdOut.printf("%8d  %8d  %6d  %7.1f  %7.1f  %7.1f  %7.1f%n", sessions, total, errors.get(), total / seconds,
+                percentile(all, 0.50), percentile(all, 0.99), percentile(all, 1.0));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0)
+            return 0;
+
+        int i = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, i)] / 1e6;
+    }
+
+    /**
+     * Play the games of a session as player 1 with random moves.
+     *
+     * @return The number of latencies recorded.
+     */
+    private int play(int id, long[] latencies) throws IOException {
+        Random random = new Random(id);
+        int count = 0;
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+            socket.setTcpNoDelay(true);
+
+            for (int game = 0; game < games; game++) {
+                int[] heights = new int[cols];
+                expect(request(in, out, "NEW " + cols + " " + rows + " 1"), "OK");
+
+                while (true) {
+                    int column;
+                    do column = random.nextInt(cols);
+                    while (heights[column] == rows);
+                    heights[column]++;
+
+                    long begin = System.nanoTime();
+                    String reply = request(in, out, "MOVE " + column);
+                    latencies[count++] = System.nanoTime() - begin;
+
+                    String[] words = reply.split(" ");
+                    if (words[0].equals("END"))
+                        break;
+
+                    expect(words[0], "MOVE");
+                    heights[Integer.parseInt(words[1])]++;
+                }
+            }
+
+            out.println("QUIT");
+        }
+
+        return count;
+    }
+
+    private static String request(BufferedReader in, PrintWriter out, String request) throws IOException {
+        out.println(request);
+        String reply = in.readLine();
+
+        if (reply == null)
+            throw new IOException("The server closed the session");
+        return reply;
+    }
+
+    private static void expect(String reply, String expected) throws IOException {
+        if (!reply.equals(expected))
+            throw new IOException("Expected " + expected + " but got " + reply);
+    }
+}
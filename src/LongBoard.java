@@ -0,0 +1,458 @@
+import java.util.Arrays;
+
+/**
+ * A position on a bitboard of a single long, for boards of at most 64 cells including the free cell
+ * on top of each column. The checks are a few shifts and masks of the whole board at once.
+ */
+public class LongBoard extends BitBoard {
+    // region Fields
+
+    // Maximal possible size of the board
+    private static final int MAX_SIZE = 64;
+    // The threats shift by up to three times the height plus six, which must stay below 64
+    private static final int MAX_HEIGHT = 19;
+
+    private final int height2;
+
+    // Helper masks
+    private final long all1;
+    private final long col1;
+    private final long bottom;
+    private final long top;
+    private final long odd, even;
+
+    // The coins of both players and of each, indexed by player id
+    private final long[] boards = new long[3];
+
+    /// endregion
+
+    /**
+     * Check if a board of the given size fits in a long.
+     */
+    public static boolean fits(int width, int height) {
+        return width * (height + 1) <= MAX_SIZE && height <= MAX_HEIGHT;
+    }
+
+    public LongBoard(int width, int height) {
+        super(width, height);
+
+        // Check board size
+        if (!fits(width, height))
+            throw new IllegalArgumentException("The board is too big for a long. The board size ((height + 1) * width) may not exceed " +
+                    MAX_SIZE + ", nor the height " + MAX_HEIGHT);
+
+        height2 = height + 2;
+
+        // Calculate constants
+        // A shift by all 64 bits of a long leaves it as it is
+        all1 = height1 * width == MAX_SIZE ? -1L : (1L << height1 * width) - 1L;
+        col1 = (1L << height1)         - 1L;
+        long bottom = 0L;
+        for (int x = 0; x < width; x++)
+            bottom |= 1L << x * height1;
+        this.bottom = bottom;
+        top = bottom << height;
+
+        long odd = bottom;
+        for (int i = 0; i < height; i+=2) odd = (odd << 2) | bottom;
+        this.odd = odd;
+        even = all1 ^ odd;
+    }
+
+    private LongBoard(LongBoard other) {
+        super(other);
+
+        height2 = other.height2;
+        all1 = other.all1;
+        col1 = other.col1;
+        bottom = other.bottom;
+        top = other.top;
+        odd = other.odd;
+        even = other.even;
+
+        System.arraycopy(other.boards, 0, boards, 0, boards.length);
+    }
+
+    @Override
+    public BitBoard copy() {
+        return new LongBoard(this);
+    }
+
+    @Override
+    public void set(BitBoard other) {
+        super.set(other);
+        System.arraycopy(((LongBoard) other).boards, 0, boards, 0, boards.length);
+    }
+
+    // region Position
+
+    @Override
+    protected void add(int cell, int player) {
+        long action = 1L << cell;
+
+        boards[COMMON] |= action;
+        boards[player] |= action;
+    }
+
+    @Override
+    protected void remove(int cell, int player) {
+        long action = 1L << cell;
+
+        boards[COMMON] ^= action;
+        boards[player] ^= action;
+    }
+
+    @Override
+    public int player(int cell) {
+        return (boards[PLAYER1] >>> cell & 1L) != 0 ? PLAYER1 :
+               (boards[PLAYER2] >>> cell & 1L) != 0 ? PLAYER2 : 0;
+    }
+
+    /**
+     * The common board plus bottom marks the height of each column, adding the coins of the player to
+     * move then makes the key unique within the board size.
+     */
+    @Override
+    public long key() {
+        return boards[toMove()] + boards[COMMON] + bottom;
+    }
+
+    /**
+     * No carries cross the columns, so the key mirrors like a bitboard.
+     */
+    @Override
+    public long mirroredKey() {
+        return mirror(key());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof LongBoard && ((LongBoard) o).width == width && ((LongBoard) o).height == height &&
+                Arrays.equals(((LongBoard) o).boards, boards);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(key());
+    }
+
+    // endregion
+
+    // region BitBoard operations
+
+    // Shifting operations:
+    // d c
+    // x b
+    //   a
+
+    @Override
+    public boolean hasFourConnected(int player) {
+        return hasFourConnected(boards[player]);
+    }
+
+    @Override
+    public int winningMove(int player) {
+        long wins = possible(boards[COMMON]) & threats(boards[player], all1 ^ (boards[COMMON] | top));
+
+        return wins != 0 ? Long.numberOfTrailingZeros(wins) / height1 : -1;
+    }
+
+    @Override
+    public int nonLosingMoves(int[] columns) {
+        int player = toMove();
+        long next = nonLosingMoves(boards[player], boards[3 - player], boards[COMMON]);
+        int n = 0;
+
+        // At most one cell per column, taken from the lowest bit up, i.e. from left to right
+        for (; next != 0; next &= next - 1)
+            columns[n++] = Long.numberOfTrailingZeros(next) / height1;
+
+        return n;
+    }
+
+    @Override
+    public int threatsAfter(int column) {
+        long thisBoard = boards[toMove()];
+        long action = 1L << cell(column);
+
+        return Long.bitCount(threats(thisBoard | action, all1 ^ (boards[COMMON] | action | top)));
+    }
+
+    @Override
+    public void countThreats(int player, int[] counts) {
+        long threats = threats(boards[player], all1 ^ (boards[COMMON] | top));
+
+        counts[0] = Long.bitCount(threats & odd);
+        counts[1] = Long.bitCount(threats & even);
+    }
+
+    /**
+     * Check if a player has four connected.
+     *
+     * @param bitboard A bitboard representation of the player's coins on the board.
+     * @return True if the player has four connected, false otherwise.
+     */
+    private boolean hasFourConnected(long bitboard) {
+        long a = bitboard & bitboard >> height;
+        long b = bitboard & bitboard >> height1;
+        long c = bitboard & bitboard >> height2;
+        long d = bitboard & bitboard >> 1;
+
+        return (a & a >> 2 * height |  // check diagonal   \
+                b & b >> 2 * height1 |  // check horizontal -
+                c & c >> 2 * height2 |  // check diagonal   /
+                d & d >> 2 * 1) != 0;   // check vertical   |
+    }
+
+    /**
+     * Mirror a bitboard left to right by reversing the order of its columns.
+     */
+    private long mirror(long bitboard) {
+        long mirrored = 0L;
+
+        for (int x = 0, y = width - 1; x < width; x++, y--)
+            mirrored |= (bitboard >>> x * height1 & col1) << y * height1;
+
+        return mirrored;
+    }
+
+    /**
+     * All cells where a coin can be inserted.
+     */
+    private long possible(long commonBoard) {
+        return (commonBoard + bottom) & ~top;
+    }
+
+    /**
+     * The moves that don't let the opponent win with the next move. If the opponent has a single
+     * immediate win it must be blocked, if they have two the game is lost and there are no such moves.
+     */
+    private long nonLosingMoves(long thisBoard, long thatBoard, long commonBoard) {
+        long possible = possible(commonBoard);
+        long thatThreats = threats(thatBoard, all1 ^ (commonBoard | top));
+        long forced = possible & thatThreats;
+
+        if (forced != 0) {
+            // More than one immediate win can't be blocked
+            if ((forced & forced - 1) != 0)
+                return 0L;
+
+            possible = forced;
+        }
+
+        // Don't play directly below a threat
+        return possible & ~(thatThreats >> 1);
+    }
+
+    private long threats(long bitboard, long free) {
+        long threats = 0L;
+
+        // Diagonal \
+        long aa = bitboard & bitboard >> height;
+        long fa = free     & bitboard >> height;
+        long af = free     & bitboard << height;
+
+        threats |= fa & aa >> 2 * height;
+        threats |= af & aa >> 1 * height;
+        threats |= fa & aa << 2 * height;
+        threats |= af & aa << 3 * height;
+
+
+        // Horizontal -
+        long bb = bitboard & bitboard >> height1;
+        long fb = free     & bitboard >> height1;
+        long bf = free     & bitboard << height1;
+
+        threats |= fb & bb >> 2 * height1;
+        threats |= bf & bb >> 1 * height1;
+        threats |= fb & bb << 2 * height1;
+        threats |= bf & bb << 3 * height1;
+
+
+        // Diagonal /
+        long cc = bitboard & bitboard >> height2;
+        long fc = free     & bitboard >> height2;
+        long cf = free     & bitboard << height2;
+
+        threats |= fc & cc >> 2 * height2;
+        threats |= cf & cc >> 1 * height2;
+        threats |= fc & cc << 2 * height2;
+        threats |= cf & cc << 3 * height2;
+
+        // Vertical |
+        long dd = bitboard & bitboard << 1;
+        long df = free     & bitboard << 1;
+
+        threats |= df & dd << 2;
+
+        // Return the threats board now containing 1's in all the places we have threats
+        return threats;
+    }
+
+    // endregion
+
+    // region Heuristics
+
+    @Override
+    public int patterns(int column) {
+        int player = toMove();
+        long thisNextBoard = boards[player] | 1L << cell(column);
+        long thatBoard = boards[3 - player];
+
+        return
+            // Check for free-ended trebles
+            (hTreblesFreeEnded(thisNextBoard, thatBoard) << 16) +
+            // Check for trebles with holes
+            (hTreblesWithHoles(thisNextBoard, thatBoard) << 14) +
+            // Check for double-free ended pairs
+            (hPairsDoubleFreeEnded(thisNextBoard, thatBoard) << 12) +
+            // Check for free-ended pairs
+            (hPairsFreeEnded(thisNextBoard, thatBoard) << 8) +
+            // Check for trebles
+            (hTrebles(thisNextBoard) << 4) +
+            // Check for pairs
+            (hPairs(thisNextBoard) << 0);
+    }
+
+    private int hPairs(long bitboard) {
+        long a = bitboard & bitboard >> height;
+        long b = bitboard & bitboard >> height1;
+        long c = bitboard & bitboard >> height2;
+        long d = bitboard & bitboard >> 1;
+
+        return Long.bitCount(a) +
+               Long.bitCount(b) +
+               Long.bitCount(c) +
+               Long.bitCount(d);
+    }
+
+    private int hPairsFreeEnded(long bitboard1, long bitboard2) {
+        long a = bitboard1 & bitboard1 >> height;
+        long b = bitboard1 & bitboard1 >> height1;
+        long c = bitboard1 & bitboard1 >> height2;
+        long d = bitboard1 & bitboard1 >> 1;
+
+        // Find all possibly free spots - not top/opponent's coins
+        long free = all1 ^ (bitboard2 | top);
+
+        return Long.bitCount(a & free >> 2 * height) +
+               Long.bitCount(b & free >> 2 * height1) +
+               Long.bitCount(c & free >> 2 * height2) +
+               Long.bitCount(d & free >> 2 * 1) +
+               Long.bitCount(free & a >> height) +
+               Long.bitCount(free & b >> height1) +
+               Long.bitCount(free & c >> height2);
+    }
+
+    private int hPairsDoubleFreeEnded(long thisBoard, long thatBoard) {
+        long a = thisBoard & thisBoard >> height;
+        long b = thisBoard & thisBoard >> height1;
+        long c = thisBoard & thisBoard >> height2;
+        long d = thisBoard & thisBoard >> 1;
+
+        // Find all possibly free spots - not top/opponent's coins
+        long free = all1 ^ (thisBoard | thatBoard | top);
+
+        long a2 = free & free >> height;
+        long b2 = free & free >> height1;
+        long c2 = free & free >> height2;
+        long d2 = free & free >> 1;
+
+        return Long.bitCount(a & a2 >> 2 * height) +
+               Long.bitCount(b & b2 >> 2 * height1) +
+               Long.bitCount(c & c2 >> 2 * height2) +
+               Long.bitCount(d & d2 >> 2 * 1) +
+               Long.bitCount(a2 & a >> height) +
+               Long.bitCount(b2 & b >> height1) +
+               Long.bitCount(c2 & c >> height2);
+    }
+
+    private int hTrebles(long bitboard) {
+        long a = bitboard & bitboard >> height;
+        long b = bitboard & bitboard >> height1;
+        long c = bitboard & bitboard >> height2;
+        long d = bitboard & bitboard >> 1;
+
+        return Long.bitCount(a & a >> height) +
+               Long.bitCount(b & b >> height1) +
+               Long.bitCount(c & c >> height2) +
+               Long.bitCount(d & d >> 1);
+    }
+
+    private int hTreblesFreeEnded(long bitboard1, long bitboard2) {
+        long a = bitboard1 & bitboard1 >> height;
+        long b = bitboard1 & bitboard1 >> height1;
+        long c = bitboard1 & bitboard1 >> height2;
+        long d = bitboard1 & bitboard1 >> 1;
+
+        a = a & a >> height;
+        b = b & b >> height1;
+        c = c & c >> height2;
+        d = d & d >> 1;
+
+        // Find all possibly free spots - not top/opponent's coins
+        long free = all1 ^ (bitboard2 | top);
+
+        return Long.bitCount(a & free >> 3 * height) +
+               Long.bitCount(b & free >> 3 * height1) +
+               Long.bitCount(c & free >> 3 * height2) +
+               Long.bitCount(d & free >> 3 * 1) +
+               Long.bitCount(free & a >> height) +
+               Long.bitCount(free & b >> height1) +
+               Long.bitCount(free & c >> height2);
+    }
+
+    /**
+     * Searches for XX_X
+     */
+    private int hTreblesWithHoles(long bitboard1, long bitboard2) {
+        // XX
+        long a = bitboard1 & bitboard1 >> height;
+        long b = bitboard1 & bitboard1 >> height1;
+        long c = bitboard1 & bitboard1 >> height2;
+
+        // Find all possibly free spots - not top/opponent's coins
+        long free = all1 ^ (bitboard2 | top);
+
+        // _X
+        long fa = free & bitboard1 >> height;
+        long fb = free & bitboard1 >> height1;
+        long fc = free & bitboard1 >> height2;
+
+        // X_
+        long af = bitboard1 & free >> height;
+        long bf = bitboard1 & free >> height1;
+        long cf = bitboard1 & free >> height2;
+
+        return Long.bitCount(a & fa >> 2 * height) +
+               Long.bitCount(b & fb >> 2 * height1) +
+               Long.bitCount(c & fc >> 2 * height2) +
+               Long.bitCount(af & a >> 2 * height) +
+               Long.bitCount(bf & b >> 2 * height1) +
+               Long.bitCount(cf & c >> 2 * height2);
+    }
+
+    // endregion
+
+    // region Visualization
+
+    @Override
+    public String toString() {
+        String s = "";
+
+        for (int y = 0; y < height; y++) {
+            long row1 = boards[PLAYER1] >> height - 1 - y;
+            long row2 = boards[PLAYER2] >> height - 1 - y;
+            for (int x = 0; x < width; x++) {
+                s += " " + ((row1 & 1L) != 0 ? "X" : ((row2 & 1L) != 0 ? "O" : "."));
+                row1 >>= height1;
+                row2 >>= height1;
+            }
+            s += '\n';
+        }
+
+        return s;
+    }
+
+    // endregion
+}
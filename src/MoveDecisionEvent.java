@@ -0,0 +1,35 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A Flight Recorder event for each move decided by an engine, lasting as long as the decision.
+ * Started and committed through FlightEvents.
+ */
+@Name("connectfour.MoveDecision")
+@Label("Move Decision")
+@Category("Connect Four")
+@Description("A move decided by an engine, with the time it was given and why it stopped")
+public class MoveDecisionEvent extends jdk.jfr.Event {
+    @Label("Engine")
+    String engine;
+
+    @Label("Move")
+    int move;
+
+    @Label("Depth")
+    int depth;
+
+    @Label("Nodes")
+    long nodes;
+
+    @Label("Budget")
+    @Description("The time the move could take at most, 0 if unlimited")
+    @Timespan(Timespan.MILLISECONDS)
+    long budget;
+
+    @Label("Stop Reason")
+    String stopReason;
+}
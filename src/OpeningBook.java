@@ -0,0 +1,225 @@
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An opening book of best moves, stored in a file that is memory-mapped instead of loaded, so it costs
+ * neither heap nor parse time.
+ *
+ * The file is a sequence of longs: a header of magic, version, width, height and number of entries,
+ * followed by the entries as pairs of position key and data, sorted by key. The key is the one used by
+ * GameLogic for the player to move, which mirrored positions share, the data is packed as follows:
+ *  bits  0-31 score from the point of view of the player to move
+ *  bits 32-39 best move (column + 1) in the position the key belongs to
+ *
+ * Running the class generates a book by searching every position up to a number of plies.
+ *
+ * Usage: java OpeningBook [plies] [depth] [width] [height]
+ */
+public class OpeningBook {
+    // region Fields
+
+    private static final long MAGIC = 0x434F4E4E45435434L;
+    // Changes whenever the keys do
+    private static final long VERSION = 2;
+    private static final int HEADER = 5;
+
+    private final LongBuffer entries;
+    private final int size;
+
+    /// endregion
+
+    private OpeningBook(LongBuffer entries) {
+        this.entries = entries;
+        size = (int) entries.get(4);
+    }
+
+    /**
+     * The default file of the book for the given board size.
+     */
+    public static File file(int width, int height) {
+        return new File("book-" + width + "x" + height + ".bin");
+    }
+
+    /**
+     * Map a book into memory.
+     *
+     * @return The book, or null if the file doesn't exist or is for another board size.
+     */
+    public static OpeningBook load(File file, int width, int height) throws IOException {
+        if (!file.isFile())
+            return null;
+
+        // The mapping stays valid after the channel is closed
+        LongBuffer entries;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asLongBuffer();
+        }
+
+        if (entries.limit() < HEADER || entries.get(0) != MAGIC)
+            throw new IOException(file + " is not an opening book");
+
+        if (entries.get(1) != VERSION)
+            throw new IOException(file + " is an old opening book, generate it again");
+
+        if (entries.get(2) != width || entries.get(3) != height)
+            return null;
+
+        return new OpeningBook(entries);
+    }
+
+    /**
+     * Look up a position in the book with a binary search.
+     *
+     * @param key The key of the position for the player to move.
+     * @return The packed data of the entry, or 0 if the position is not in the book.
+     */
+    public long probe(long key) {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = entries.get(HEADER + 2 * mid);
+
+            if (midKey < key)
+                low = mid + 1;
+            else if (midKey > key)
+                high = mid - 1;
+            else
+                return entries.get(HEADER + 2 * mid + 1);
+        }
+
+        return 0L;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // region Packing
+
+    static long pack(int score, int move) {
+        return (score & 0xFFFFFFFFL) | (long) ((move + 1) & 0xFF) << 32;
+    }
+
+    public static int score(long data) {
+        return (int) data;
+    }
+
+    public static int move(long data) {
+        return ((int) (data >>> 32) & 0xFF) - 1;
+    }
+
+    // endregion
+
+    // region Generator
+
+    public static void main(String[] args) throws IOException {
+        int plies  = args.length >= 1 ? Integer.parseInt(args[0]) : 6;
+        int depth  = args.length >= 2 ? Integer.parseInt(args[1]) : 14;
+        int width  = args.length >= 3 ? Integer.parseInt(args[2]) : 7;
+        int height = args.length >= 4 ? Integer.parseInt(args[3]) : 6;
+
+        File file = file(width, height);
+        StdOut.println("Searching all positions up to " + plies + " plies to depth " + depth);
+        Stopwatch sw = new Stopwatch();
+
+        Generator generator = new Generator(width, height, plies, depth);
+        generator.generate(0);
+        write(file, width, height, generator.entries);
+
+        StdOut.println("Wrote " + generator.entries.size() + " positions to " + file + " in " + sw.elapsedTime() + " s");
+    }
+
+    /**
+     * Walks the game tree with a game logic for each player, so that each searches the positions where
+     * its player is to move and both keep their transposition tables across positions.
+     */
+    private static class Generator {
+        private final GameLogic[] logics = new GameLogic[3];
+        private final int[] heights;
+        private final int width, height, plies, depth;
+        private final Map<Long, Long> entries = new HashMap<Long, Long>();
+
+        Generator(int width, int height, int plies, int depth) {
+            this.width = width;
+            this.height = height;
+            this.plies = plies;
+            this.depth = depth;
+            heights = new int[width];
+
+            for (int player = 1; player <= 2; player++) {
+                logics[player] = new GameLogic();
+                logics[player].initializeGame(width, height, player);
+            }
+        }
+
+        private void generate(int ply) {
+            GameLogic logic = logics[ply % 2 + 1];
+            long key = logic.key();
+
+            // Positions are reached by many move orders, and mirrored positions share their entry
+            if (entries.containsKey(key) || logic.gameFinished() != IGameLogic.Winner.NOT_FINISHED)
+                return;
+
+            int move = logic.search(depth);
+            entries.put(key, pack(logic.score(), logic.orient(move)));
+
+            if (entries.size() % 1000 == 0)
+                StdOut.println(entries.size() + " positions");
+
+            if (ply == plies)
+                return;
+
+            for (int x = 0; x < width; x++) {
+                if (heights[x] == height)
+                    continue;
+
+                play(x, ply % 2 + 1, true);
+                generate(ply + 1);
+                play(x, ply % 2 + 1, false);
+            }
+        }
+
+        private void play(int column, int player, boolean insert) {
+            for (int i = 1; i <= 2; i++) {
+                if (insert) logics[i].insertCoin(column, player);
+                else        logics[i].removeCoin(column, player);
+            }
+
+            heights[column] += insert ? 1 : -1;
+        }
+    }
+
+    private static void write(File file, int width, int height, Map<Long, Long> entries) throws IOException {
+        long[] keys = new long[entries.size()];
+        int i = 0;
+        for (long key : entries.keySet())
+            keys[i++] = key;
+        Arrays.sort(keys);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeLong(MAGIC);
+            out.writeLong(VERSION);
+            out.writeLong(width);
+            out.writeLong(height);
+            out.writeLong(keys.length);
+
+            for (long key : keys) {
+                out.writeLong(key);
+                out.writeLong(entries.get(key));
+            }
+        }
+    }
+
+    // endregion
+}
@@ -0,0 +1,272 @@
+/**
+ * Counts the positions reached after a number of plies with the bitboards of GameLogic, serially
+ * and in parallel over the first moves, reporting positions per second for moving and checking for
+ * wins without any evaluation. Finished games aren't played on.
+ *
+ * The counts are first checked at every smaller depth against a plain board of arrays, and
+ * "check" instead checks GameLogic on a board of a single long and of several longs, and RandomGameLogic,
+ * on every board size that fits in a long, and on the bigger boards up to 12x12, which only fit in several.
+ *
+ * Usage: java Perft [depth] [width] [height] [threads] [moves]
+ *        java Perft check
+ */
+public class Perft {
+
+    // The reference is slow, so only check depths with at most this many positions
+    private static final long MAX_CHECKED = 2000000;
+    private static final int MAX_SIZE = 64;
+    private static final int MAX_HEIGHT = 29;
+    // Check boards of several longs up to this width and height
+    private static final int MAX_WIDE = 12;
+    // Random games played on each board size
+    private static final int GAMES = 200;
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length >= 1 && args[0].equals("check")) {
+            System.exit(check() ? 0 : 1);
+        }
+
+        int depth   = args.length >= 1 ? Integer.parseInt(args[0]) : 8;
+        int width   = args.length >= 2 ? Integer.parseInt(args[1]) : 7;
+        int height  = args.length >= 3 ? Integer.parseInt(args[2]) : 6;
+        int threads = args.length >= 4 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        String moves = args.length >= 5 ? args[4] : "";
+
+        GameLogic logic = position(width, height, moves);
+        Reference reference = new Reference(width, height, moves);
+
+        StdOut.println("Perft of \"" + moves + "\" on " + width + "x" + height);
+        StdOut.println("Depth    reference     bitboard");
+
+        boolean ok = true;
+        for (int d = 1; d <= depth; d++) {
+            long expected = reference.perft(d);
+            long count = sum(logic.perft(d, 1));
+            ok &= count == expected;
+
+            StdOut.printf("%5d  %11d  %11d  %s%n", d, expected, count, count == expected ? "" : "MISMATCH");
+
+            if (expected * width > MAX_CHECKED)
+                break;
+        }
+
+        long start = System.nanoTime();
+        long[] counts = logic.perft(depth, 1);
+        long serial = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long[] parallel = logic.perft(depth, threads);
+        long time = System.nanoTime() - start;
+
+        long total = sum(counts);
+        ok &= total == sum(parallel);
+
+        StdOut.println();
+        StdOut.print("Divide at depth " + depth + ":");
+        for (int x = 0; x < width; x++)
+            StdOut.print(" " + x + ": " + counts[x]);
+        StdOut.println();
+
+        StdOut.printf("Serial      %12d positions  %8.1f ms  %12.0f positions/s%n", total, serial / 1e6, total / (serial / 1e9));
+        StdOut.printf("%2d threads  %12d positions  %8.1f ms  %12.0f positions/s  %.2fx%n",
+                threads, sum(parallel), time / 1e6, sum(parallel) / (time / 1e9), serial / (double) time);
+
+        if (!ok) {
+            StdOut.println("The counts differ!");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Check the counts of GameLogic on both kinds of boards against the reference on every board size,
+     * and the win check of GameLogic and RandomGameLogic in random games.
+     *
+     * @return True if everything matches.
+     */
+    private static boolean check() throws InterruptedException {
+        boolean ok = true;
+        java.util.Random random = new java.util.Random(42);
+
+        for (int width = 1; width <= MAX_SIZE / 2; width++) {
+            for (int height = 1; height <= MAX_HEIGHT; height++) {
+                if (width * (height + 1) > MAX_SIZE && (width > MAX_WIDE || height > MAX_WIDE))
+                    continue;
+
+                GameLogic logic = position(width, height, "");
+                GameLogic wide = widePosition(width, height);
+                Reference reference = new Reference(width, height, "");
+
+                int depth = 0;
+                long expected = 1;
+                boolean same = true;
+
+                // Count to the depth whose positions the reference can still count quickly
+                while (depth < width * height && expected * width <= MAX_CHECKED) {
+                    depth++;
+                    expected = reference.perft(depth);
+                    same &= sum(logic.perft(depth, 1)) == expected;
+                    same &= sum(wide.perft(depth, 1)) == expected;
+                }
+
+                int games = randomGames(width, height, random);
+
+                if (!same || games > 0)
+                    StdOut.println(width + "x" + height + ": " + (same ? "" : "counts differ to depth " + depth + " ") +
+                            (games > 0 ? games + " games finished differently" : ""));
+                ok &= same && games == 0;
+            }
+        }
+
+        StdOut.println(ok ? "All board sizes match" : "Some board sizes differ!");
+        return ok;
+    }
+
+    /**
+     * Play random games, comparing the winner of the game logics to the reference after every move.
+     *
+     * @return The number of games where they differ.
+     */
+    private static int randomGames(int width, int height, java.util.Random random) {
+        int differ = 0;
+        // The game logics allocate their tables when created, so only new games are started on them
+        GameLogic logic = position(width, height, "");
+        GameLogic wide = widePosition(width, height);
+
+        for (int game = 0; game < GAMES; game++) {
+            logic.initializeGame(width, height, 1);
+            wide.initializeGame(width, height, 1);
+            RandomGameLogic randomLogic = new RandomGameLogic();
+            randomLogic.initializeGame(width, height, 1);
+            Reference reference = new Reference(width, height, "");
+
+            for (int player = 1; reference.winner == IGameLogic.Winner.NOT_FINISHED; player = 3 - player) {
+                int x;
+                do x = random.nextInt(width);
+                while (reference.heights[x] == height);
+
+                reference.play(x, player);
+                logic.insertCoin(x, player);
+                wide.insertCoin(x, player);
+                randomLogic.insertCoin(x, player);
+
+                if (logic.gameFinished() != reference.winner || wide.gameFinished() != reference.winner ||
+                        randomLogic.gameFinished() != reference.winner) {
+                    differ++;
+                    break;
+                }
+            }
+        }
+
+        return differ;
+    }
+
+    private static GameLogic position(int width, int height, String moves) {
+        // The table isn't used
+        GameLogic logic = new GameLogic();
+        logic.setTableBits(1);
+        logic.initializeGame(width, height, 1);
+
+        for (int i = 0; i < moves.length(); i++)
+            logic.insertCoin(moves.charAt(i) - '0', i % 2 + 1);
+
+        return logic;
+    }
+
+    private static GameLogic widePosition(int width, int height) {
+        // The table isn't used
+        GameLogic logic = new GameLogic();
+        logic.setTableBits(1);
+        logic.setWide(true);
+        logic.initializeGame(width, height, 1);
+        return logic;
+    }
+
+    private static long sum(long[] counts) {
+        long sum = 0;
+        for (long count : counts)
+            sum += count;
+        return sum;
+    }
+
+    /**
+     * A plain board, looking for four connected through the last coin in all directions.
+     */
+    private static class Reference {
+        private final int width, height;
+        private final int[][] board;
+        private final int[] heights;
+        private IGameLogic.Winner winner = IGameLogic.Winner.NOT_FINISHED;
+        private int coins;
+
+        Reference(int width, int height, String moves) {
+            this.width = width;
+            this.height = height;
+            board = new int[width][height];
+            heights = new int[width];
+
+            for (int i = 0; i < moves.length(); i++)
+                play(moves.charAt(i) - '0', i % 2 + 1);
+        }
+
+        void play(int x, int player) {
+            int y = heights[x]++;
+            board[x][y] = player;
+            coins++;
+
+            if (wins(x, y, player))
+                winner = player == 1 ? IGameLogic.Winner.PLAYER1 : IGameLogic.Winner.PLAYER2;
+            else if (coins == width * height)
+                winner = IGameLogic.Winner.TIE;
+        }
+
+        long perft(int depth) {
+            if (winner != IGameLogic.Winner.NOT_FINISHED)
+                return 0;
+
+            return perft(depth, coins % 2 + 1);
+        }
+
+        private long perft(int depth, int player) {
+            if (depth == 0)
+                return 1;
+
+            long count = 0;
+            for (int x = 0; x < width; x++) {
+                if (heights[x] == height)
+                    continue;
+
+                int y = heights[x]++;
+                board[x][y] = player;
+
+                if (!wins(x, y, player))
+                    count += perft(depth - 1, 3 - player);
+                else if (depth == 1)
+                    count++;
+
+                board[x][y] = 0;
+                heights[x]--;
+            }
+
+            return count;
+        }
+
+        private boolean wins(int x, int y, int player) {
+            int[][] directions = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+
+            for (int[] d : directions) {
+                int n = 1;
+                for (int i = 1; i < 4 && owns(x + i * d[0], y + i * d[1], player); i++) n++;
+                for (int i = 1; i < 4 && owns(x - i * d[0], y - i * d[1], player); i++) n++;
+
+                if (n >= 4)
+                    return true;
+            }
+
+            return false;
+        }
+
+        private boolean owns(int x, int y, int player) {
+            return x >= 0 && x < width && y >= 0 && y < height && board[x][y] == player;
+        }
+    }
+}
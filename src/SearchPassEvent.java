@@ -0,0 +1,30 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for each completed iterative deepening pass of the main search thread.
+ * Started and committed through FlightEvents.
+ */
+@Name("connectfour.SearchPass")
+@Label("Search Pass")
+@Category("Connect Four")
+@Description("A completed iterative deepening pass")
+public class SearchPassEvent extends jdk.jfr.Event {
+    @Label("Engine")
+    String engine;
+
+    @Label("Depth")
+    int depth;
+
+    @Label("Score")
+    int score;
+
+    @Label("Best Move")
+    int bestMove;
+
+    @Label("Nodes")
+    @Description("Nodes visited by the main search thread in the pass")
+    long nodes;
+}
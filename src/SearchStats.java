@@ -0,0 +1,219 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Statistics of the searches of a game logic, recorded once per move from the counters each search
+ * thread keeps to itself, so the search never writes to memory shared between threads for them.
+ *
+ * The last move and the totals over all moves can be registered as an MBean, and every move can be
+ * logged as a line of CSV, or of JSON if the file name ends with .json.
+ */
+public class SearchStats implements SearchStatsMBean {
+    // region Fields
+
+    // How a move was decided
+    public enum Source {
+        BOOK,
+        FORCED,
+        SOLVER,
+        SEARCH,
+        // The search had been pondering the position
+        PONDER
+    }
+
+    private static final String HEADER = "ply,source,move,score,depth,nodes,millis,branching,hitRate,firstMoveCutoffRate";
+
+    // The last move
+    private Source source;
+    private int ply, move, score, depth;
+    private long nodes, nanos, probes, hits, cutoffs, firstCutoffs;
+
+    // Totals of all moves
+    private int moves;
+    private long totalDepth, totalNodes, totalNanos, totalProbes, totalHits, totalCutoffs, totalFirstCutoffs;
+
+    private PrintWriter log;
+    private boolean json;
+
+    /// endregion
+
+    /**
+     * Record a move.
+     *
+     * @param ply          The number of coins on the board after the move.
+     * @param depth        The depth of the last completed pass, 0 if there was no search.
+     * @param cutoffs      The number of beta cutoffs.
+     * @param firstCutoffs The number of beta cutoffs by the first move searched.
+     */
+    public synchronized void record(int ply, Source source, int move, int score, int depth, long nodes, long nanos,
+                                    long probes, long hits, long cutoffs, long firstCutoffs) {
+        this.ply = ply;
+        this.source = source;
+        this.move = move;
+        this.score = score;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.nanos = nanos;
+        this.probes = probes;
+        this.hits = hits;
+        this.cutoffs = cutoffs;
+        this.firstCutoffs = firstCutoffs;
+
+        moves++;
+        totalDepth += depth;
+        totalNodes += nodes;
+        totalNanos += nanos;
+        totalProbes += probes;
+        totalHits += hits;
+        totalCutoffs += cutoffs;
+        totalFirstCutoffs += firstCutoffs;
+
+        if (log != null)
+            write();
+    }
+
+    private void write() {
+        if (json)
+            log.printf("{\"ply\":%d,\"source\":\"%s\",\"move\":%d,\"score\":%d,\"depth\":%d,\"nodes\":%d,\"millis\":%d," +
+                            "\"branching\":%.3f,\"hitRate\":%.4f,\"firstMoveCutoffRate\":%.4f}%n",
+                    ply, source, move, score, depth, nodes, getLastMillis(),
+                    getLastBranchingFactor(), getLastHitRate(), getLastFirstMoveCutoffRate());
+        else
+            log.printf("%d,%s,%d,%d,%d,%d,%d,%.3f,%.4f,%.4f%n", ply, source, move, score, depth, nodes, getLastMillis(),
+                    getLastBranchingFactor(), getLastHitRate(), getLastFirstMoveCutoffRate());
+
+        log.flush();
+    }
+
+    /**
+     * Append a line for every move to the given file from now on, or stop logging if it is null.
+     */
+    public synchronized void setLog(File file) throws IOException {
+        if (log != null)
+            log.close();
+        log = null;
+
+        if (file == null)
+            return;
+
+        boolean exists = file.length() > 0;
+        json = file.getName().endsWith(".json");
+        log = new PrintWriter(new FileWriter(file, true));
+
+        if (!json && !exists) {
+            log.println(HEADER);
+            log.flush();
+        }
+    }
+
+    /**
+     * Register with the platform MBean server, e.g. as "ConnectFour:type=GameLogic,name=player1".
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    // region MBean
+
+    @Override
+    public synchronized int getMoves() {
+        return moves;
+    }
+
+    @Override
+    public synchronized long getTotalNodes() {
+        return totalNodes;
+    }
+
+    @Override
+    public synchronized long getTotalMillis() {
+        return totalNanos / 1000000;
+    }
+
+    @Override
+    public synchronized double getNodesPerSecond() {
+        return totalNanos > 0 ? totalNodes / (totalNanos / 1e9) : 0;
+    }
+
+    @Override
+    public synchronized double getAverageDepth() {
+        return moves > 0 ? totalDepth / (double) moves : 0;
+    }
+
+    @Override
+    public synchronized double getHitRate() {
+        return rate(totalHits, totalProbes);
+    }
+
+    @Override
+    public synchronized double getFirstMoveCutoffRate() {
+        return rate(totalFirstCutoffs, totalCutoffs);
+    }
+
+    @Override
+    public synchronized String getLastSource() {
+        return source != null ? source.toString() : "";
+    }
+
+    @Override
+    public synchronized int getLastMove() {
+        return move;
+    }
+
+    @Override
+    public synchronized int getLastScore() {
+        return score;
+    }
+
+    @Override
+    public synchronized int getLastDepth() {
+        return depth;
+    }
+
+    @Override
+    public synchronized long getLastNodes() {
+        return nodes;
+    }
+
+    @Override
+    public synchronized long getLastMillis() {
+        return nanos / 1000000;
+    }
+
+    /**
+     * The effective branching factor, the number of nodes taken to the power of one over the depth.
+     */
+    @Override
+    public synchronized double getLastBranchingFactor() {
+        return depth > 0 && nodes > 0 ? Math.pow(nodes, 1.0 / depth) : 0;
+    }
+
+    @Override
+    public synchronized double getLastHitRate() {
+        return rate(hits, probes);
+    }
+
+    @Override
+    public synchronized double getLastFirstMoveCutoffRate() {
+        return rate(firstCutoffs, cutoffs);
+    }
+
+    @Override
+    public synchronized void reset() {
+        moves = 0;
+        totalDepth = totalNodes = totalNanos = totalProbes = totalHits = totalCutoffs = totalFirstCutoffs = 0;
+    }
+
+    private static double rate(long count, long total) {
+        return total > 0 ? count / (double) total : 0;
+    }
+
+    // endregion
+}
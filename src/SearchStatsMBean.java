@@ -0,0 +1,40 @@
+/**
+ * The statistics of the searches of a game logic as seen through JMX: of the last move, and over all
+ * moves recorded.
+ */
+public interface SearchStatsMBean {
+
+    int getMoves();
+
+    long getTotalNodes();
+
+    long getTotalMillis();
+
+    double getNodesPerSecond();
+
+    double getAverageDepth();
+
+    double getHitRate();
+
+    double getFirstMoveCutoffRate();
+
+    String getLastSource();
+
+    int getLastMove();
+
+    int getLastScore();
+
+    int getLastDepth();
+
+    long getLastNodes();
+
+    long getLastMillis();
+
+    double getLastBranchingFactor();
+
+    double getLastHitRate();
+
+    double getLastFirstMoveCutoffRate();
+
+    void reset();
+}
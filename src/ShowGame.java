@@ -14,6 +14,8 @@
 
 
 import javax.swing.*;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.net.URLClassLoader;
 import java.lang.reflect.*;
 
@@ -128,4 +130,19 @@ public class ShowGame {
         return retGL;
     }
 
+    /**
+     * Discards everything printed to System.out from now on, e.g. by engines playing without a display.
+     *
+     * @return The console System.out printed to before.
+     */
+    public static PrintStream silenceConsole() {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        return console;
+    }
+
 }
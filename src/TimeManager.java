@@ -0,0 +1,125 @@
+/**
+ * Decides how long to think about each move, given a budget per move and a budget for the whole game.
+ *
+ * Every move gets a soft limit, after which no new iterative deepening pass is started, and a hard
+ * limit, at which the search is stopped. A pass is only started if it is predicted to finish within
+ * the soft limit, or within the hard limit in critical positions, using the branching factor of the
+ * previous passes.
+ */
+public class TimeManager {
+    // region Fields
+
+    // Budgets in nanoseconds
+    private final long moveBudget;
+    private long gameRemaining;
+
+    // The current move - its limits are measured from start, which includes any time spent pondering
+    private long start;
+    private long clock;
+    private long soft;
+    private long hard;
+
+    /// endregion
+
+    /**
+     * @param moveMillis The maximal time to use on a single move.
+     * @param gameMillis The time to use on all our moves in the game.
+     */
+    public TimeManager(long moveMillis, long gameMillis) {
+        if (moveMillis <= 0 || gameMillis <= 0)
+            throw new IllegalArgumentException("The time budgets must be positive");
+
+        moveBudget = moveMillis * 1000000L;
+        // Avoid overflows for practically unlimited games
+        gameRemaining = Math.min(gameMillis, Long.MAX_VALUE / 4000000L) * 1000000L;
+    }
+
+    /**
+     * Start the clock for a new move.
+     *
+     * @param movesLeft The number of moves we may still have to make in the game, including this one.
+     */
+    public void startMove(int movesLeft) {
+        startMove(movesLeft, 0);
+    }
+
+    /**
+     * Start the clock for a new move that has already been searched while the opponent was thinking.
+     * The time spent pondering counts towards the limits of the move, but isn't taken from the game budget.
+     *
+     * @param movesLeft The number of moves we may still have to make in the game, including this one.
+     * @param pondered  The time in nanoseconds the move has been searched already.
+     */
+    public void startMove(int movesLeft, long pondered) {
+        clock = System.nanoTime();
+        start = clock - pondered;
+
+        // Never use more than half of what is left of the game on one move
+        hard = Math.min(moveBudget, gameRemaining / 2);
+        // Normally spend the game budget evenly and keep the rest for critical positions
+        soft = Math.min(hard / 2, gameRemaining / Math.max(1, movesLeft));
+    }
+
+    /**
+     * Make the current move end within the given time from now at the latest, e.g. at a deadline of the caller.
+     */
+    public void limit(long millis) {
+        hard = Math.min(hard, clock - start + millis * 1000000L);
+        soft = Math.min(soft, hard);
+    }
+
+    /**
+     * Stop the clock and subtract the time used from the game budget.
+     */
+    public void endMove() {
+        gameRemaining = Math.max(0, gameRemaining - (System.nanoTime() - clock));
+    }
+
+    /**
+     * Check if there is time to start a new pass.
+     *
+     * @param lastPass  The time the last pass took in nanoseconds.
+     * @param branching The growth in nodes from the second last to the last pass.
+     * @param critical  True if the position is critical, e.g. the best move just changed.
+     */
+    public boolean canStartPass(long lastPass, double branching, boolean critical) {
+        double predicted = lastPass * Math.max(1.0, branching);
+
+        return elapsed() + predicted <= (critical ? hard : soft);
+    }
+
+    /**
+     * Check if the move has used its normal share of time, so no search should be waited for.
+     */
+    public boolean softLimitReached() {
+        return elapsed() >= soft;
+    }
+
+    /**
+     * Check if the move has used all of its time, so the search must stop.
+     */
+    public boolean hardLimitReached() {
+        return elapsed() >= hard;
+    }
+
+    /**
+     * The time in milliseconds until the search must be stopped, at least 1.
+     */
+    public long remaining() {
+        return Math.max(1, (hard - elapsed()) / 1000000L);
+    }
+
+    /**
+     * The time in milliseconds the current move may take at most, including any time spent pondering.
+     */
+    public long budget() {
+        return hard / 1000000L;
+    }
+
+    /**
+     * The time in nanoseconds used on the current move.
+     */
+    public long elapsed() {
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * A fixed-size transposition table backed by a single preallocated long array.
+ *
+ * Every bucket holds two entries of two longs each (key and data). The first
+ * entry is depth-preferred, i.e. it is only replaced by searches that are at
+ * least as deep or when it stems from an older search, the second entry is
+ * always replaced.
+ *
+ * The table may be shared by several search threads without locking. Keys are
+ * stored xor'ed with their data, so an entry torn by concurrent writes simply
+ * fails to match its key and is treated as a miss.
+ *
+ * The data long is packed as follows:
+ *  bits  0-31 score
+ *  bits 32-39 depth (remaining search depth)
+ *  bits 40-47 best move (column + 1, 0 if unknown)
+ *  bits 48-49 bound type
+ *  bits 50-57 age of the search that stored the entry
+ */
+public class TranspositionTable {
+    // region Fields
+
+    // Bound types - never 0, so that a stored entry is never 0
+    public static final int EXACT = 1;
+    public static final int LOWER = 2;
+    public static final int UPPER = 3;
+
+    // Number of longs per bucket: two entries of key and data
+    private static final int BUCKET_SIZE = 4;
+
+    private final long[] table;
+    private final int shift;
+
+    // The age of the current search
+    private int age;
+
+    /// endregion
+
+    /**
+     * Creates a new table with 2^bits buckets.
+     *
+     * @param bits The logarithm of the number of buckets.
+     */
+    public TranspositionTable(int bits) {
+        table = new long[BUCKET_SIZE << bits];
+        shift = 64 - bits;
+    }
+
+    /**
+     * Empties the table, e.g. when a new game is started.
+     */
+    public void clear() {
+        java.util.Arrays.fill(table, 0L);
+        age = 0;
+    }
+
+    /**
+     * Marks the beginning of a new search, so that entries from earlier searches may be replaced.
+     */
+    public void newSearch() {
+        age = (age + 1) & 0xFF;
+    }
+
+    /**
+     * Look up a position in the table.
+     *
+     * @param key A unique key for the position.
+     * @return The packed data of the entry, or 0 if the position is not found.
+     */
+    public long probe(long key) {
+        int i = index(key);
+
+        // Read each long once, as other threads may be writing the entry
+        long data = table[i + 1];
+        if ((table[i] ^ data) == key && data != 0)
+            return data;
+
+        data = table[i + 3];
+        if ((table[i + 2] ^ data) == key && data != 0)
+            return data;
+
+        return 0L;
+    }
+
+    /**
+     * Store a search result in the table.
+     *
+     * @param key   A unique key for the position.
+     * @param score The score found for the position.
+     * @param bound The bound type of the score.
+     * @param depth The remaining depth the position was searched to.
+     * @param move  The best move found, or -1 if none.
+     */
+    public void store(long key, int score, int bound, int depth, int move) {
+        int i = index(key);
+        long data = pack(score, bound, depth, move);
+        long old = table[i + 1];
+        boolean same = (table[i] ^ old) == key;
+
+        // Replace the depth-preferred entry if it is the same position, shallower or from an older search
+        if (same || old == 0 || depth >= depth(old) || age(old) != age) {
+            // Keep the best move of the position if we don't know a new one
+            if (move < 0 && same)
+                data |= old & 0xFFL << 40;
+
+            table[i] = key ^ data;
+            table[i + 1] = data;
+        }
+        // Otherwise always replace the second entry
+        else {
+            old = table[i + 3];
+
+            if (move < 0 && (table[i + 2] ^ old) == key)
+                data |= old & 0xFFL << 40;
+
+            table[i + 2] = key ^ data;
+            table[i + 3] = data;
+        }
+    }
+
+    // region Packing
+
+    private long pack(int score, int bound, int depth, int move) {
+        return (score & 0xFFFFFFFFL) |
+               (long) (depth & 0xFF) << 32 |
+               (long) ((move + 1) & 0xFF) << 40 |
+               (long) bound << 48 |
+               (long) age << 50;
+    }
+
+    public static int score(long data) {
+        return (int) data;
+    }
+
+    public static int depth(long data) {
+        return (int) (data >>> 32) & 0xFF;
+    }
+
+    public static int move(long data) {
+        return ((int) (data >>> 40) & 0xFF) - 1;
+    }
+
+    public static int bound(long data) {
+        return (int) (data >>> 48) & 0x3;
+    }
+
+    private static int age(long data) {
+        return (int) (data >>> 50) & 0xFF;
+    }
+
+    // endregion
+
+    private int index(long key) {
+        // Fibonacci hashing spreads the structured bitboard keys evenly
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift) * BUCKET_SIZE;
+    }
+}
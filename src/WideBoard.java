@@ -0,0 +1,370 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A position on a bitboard of as many longs as the board needs, for boards that don't fit in the single
+ * long of a LongBoard. Bit i of a board is bit i % 64 of word i / 64. The shifts of the win and threat
+ * checks carry the bits from word to word, so the board may also be higher than a LongBoard allows.
+ *
+ * The position keeps a Zobrist key of itself and of its mirror image up to date as coins are played and
+ * taken back. Unlike the key of a LongBoard it is a hash, so different positions may share it.
+ */
+public class WideBoard extends BitBoard {
+    // region Fields
+
+    private final int height2;
+
+    // The number of longs of a board
+    private final int words;
+
+    // Helper masks
+    private final long[] all1;
+    private final long[] top;
+    private final long[] odd, even;
+
+    // The coins of both players and of each, indexed by player id
+    private final long[][] boards;
+
+    // A random number for each player and cell, and the keys of the position and its mirror image
+    private final long[][] zobrist;
+    private long key, mirroredKey;
+
+    // Scratch boards of the checks
+    private final long[] pairs;
+    private final long[] free, threats, next;
+
+    /// endregion
+
+    public WideBoard(int width, int height) {
+        super(width, height);
+
+        height2 = height + 2;
+        words = (width * height1 + 63) / 64;
+
+        all1 = new long[words];
+        top = new long[words];
+        odd = new long[words];
+        even = new long[words];
+
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                set(all1, x * height1 + y);
+                set(y % 2 == 0 ? odd : even, x * height1 + y);
+            }
+            set(top, x * height1 + height);
+        }
+
+        boards = new long[3][words];
+        pairs = new long[words];
+        free = new long[words];
+        threats = new long[words];
+        next = new long[words];
+
+        // The same numbers for every board of the size, so keys can be compared between games
+        Random random = new Random(width * 1000L + height);
+        zobrist = new long[3][width * height1];
+        for (int player = 1; player <= 2; player++)
+            for (int cell = 0; cell < zobrist[player].length; cell++)
+                zobrist[player][cell] = random.nextLong();
+    }
+
+    private WideBoard(WideBoard other) {
+        super(other);
+
+        height2 = other.height2;
+        words = other.words;
+
+        all1 = other.all1;
+        top = other.top;
+        odd = other.odd;
+        even = other.even;
+        zobrist = other.zobrist;
+
+        boards = new long[3][];
+        for (int i = 0; i < boards.length; i++)
+            boards[i] = other.boards[i].clone();
+        key = other.key;
+        mirroredKey = other.mirroredKey;
+
+        pairs = new long[words];
+        free = new long[words];
+        threats = new long[words];
+        next = new long[words];
+    }
+
+    @Override
+    public BitBoard copy() {
+        return new WideBoard(this);
+    }
+
+    @Override
+    public void set(BitBoard other) {
+        super.set(other);
+
+        WideBoard board = (WideBoard) other;
+        for (int i = 0; i < boards.length; i++)
+            System.arraycopy(board.boards[i], 0, boards[i], 0, words);
+        key = board.key;
+        mirroredKey = board.mirroredKey;
+    }
+
+    // region Position
+
+    @Override
+    protected void add(int cell, int player) {
+        set(boards[COMMON], cell);
+        set(boards[player], cell);
+        key ^= zobrist[player][cell];
+        mirroredKey ^= zobrist[player][mirror(cell)];
+    }
+
+    @Override
+    protected void remove(int cell, int player) {
+        clear(boards[COMMON], cell);
+        clear(boards[player], cell);
+        key ^= zobrist[player][cell];
+        mirroredKey ^= zobrist[player][mirror(cell)];
+    }
+
+    @Override
+    public int player(int cell) {
+        return get(boards[PLAYER1], cell) ? PLAYER1 : get(boards[PLAYER2], cell) ? PLAYER2 : 0;
+    }
+
+    @Override
+    public long key() {
+        return key;
+    }
+
+    @Override
+    public long mirroredKey() {
+        return mirroredKey;
+    }
+
+    /**
+     * The cell in the same row of the mirrored column.
+     */
+    private int mirror(int cell) {
+        return (width - 1 - cell / height1) * height1 + cell % height1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof WideBoard) || ((WideBoard) o).width != width || ((WideBoard) o).height != height)
+            return false;
+
+        for (int i = 0; i < boards.length; i++)
+            if (!Arrays.equals(((WideBoard) o).boards[i], boards[i]))
+                return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(key);
+    }
+
+    // endregion
+
+    // region BitBoard operations
+
+    // Shifting operations, as in LongBoard:
+    // d c
+    // x b
+    //   a
+
+    @Override
+    public boolean hasFourConnected(int player) {
+        return hasFourConnected(boards[player]);
+    }
+
+    /**
+     * Check if a player has four connected.
+     *
+     * @param bitboard A bitboard representation of the player's coins on the board.
+     * @return True if the player has four connected, false otherwise.
+     */
+    private boolean hasFourConnected(long[] bitboard) {
+        return hasFour(bitboard, height) ||   // check diagonal   \
+               hasFour(bitboard, height1) ||  // check horizontal -
+               hasFour(bitboard, height2) ||  // check diagonal   /
+               hasFour(bitboard, 1);          // check vertical   |
+    }
+
+    /**
+     * Check for four coins in a row in the direction of the shift, as two pairs of pairs.
+     */
+    private boolean hasFour(long[] bitboard, int shift) {
+        for (int i = 0; i < words; i++)
+            pairs[i] = bitboard[i] & shiftRight(bitboard, shift, i);
+
+        for (int i = 0; i < words; i++)
+            if ((pairs[i] & shiftRight(pairs, 2 * shift, i)) != 0)
+                return true;
+
+        return false;
+    }
+
+    @Override
+    public int winningMove(int player) {
+        free(free);
+        threats(boards[player], free, threats);
+
+        for (int x = 0; x < width; x++)
+            if (heights[x] < height && get(threats, cell(x)))
+                return x;
+
+        return -1;
+    }
+
+    @Override
+    public int nonLosingMoves(int[] columns) {
+        free(free);
+        threats(boards[3 - toMove()], free, threats);
+
+        // More than one immediate win can't be blocked
+        int forced = -1;
+        for (int x = 0; x < width; x++) {
+            if (heights[x] < height && get(threats, cell(x))) {
+                if (forced >= 0)
+                    return 0;
+                forced = x;
+            }
+        }
+
+        // Only the block is left if the opponent can win
+        int from = forced >= 0 ? forced : 0;
+        int to = forced >= 0 ? forced + 1 : width;
+        int n = 0;
+
+        // Don't play directly below a threat
+        for (int x = from; x < to; x++)
+            if (heights[x] < height && !get(threats, cell(x) + 1))
+                columns[n++] = x;
+
+        return n;
+    }
+
+    @Override
+    public int threatsAfter(int column) {
+        int cell = cell(column);
+        long[] bitboard = boards[toMove()];
+
+        free(free);
+        clear(free, cell);
+        System.arraycopy(bitboard, 0, next, 0, words);
+        set(next, cell);
+        threats(next, free, threats);
+
+        return bitCount(threats, all1);
+    }
+
+    @Override
+    public void countThreats(int player, int[] counts) {
+        free(free);
+        threats(boards[player], free, threats);
+
+        counts[0] = bitCount(threats, odd);
+        counts[1] = bitCount(threats, even);
+    }
+
+    /**
+     * The empty cells of the position.
+     */
+    private void free(long[] free) {
+        for (int i = 0; i < words; i++)
+            free[i] = all1[i] & ~(boards[COMMON][i] | top[i]);
+    }
+
+    /**
+     * The free cells that would give the player four connected, as threats() of LongBoard.
+     *
+     * @param bitboard The player's coins.
+     * @param free     The empty cells.
+     * @param threats  Set to the threats.
+     */
+    private void threats(long[] bitboard, long[] free, long[] threats) {
+        // Vertical |
+        for (int i = 0; i < words; i++)
+            threats[i] = free[i] & shiftLeft(bitboard, 1, i) & shiftLeft(bitboard, 2, i) & shiftLeft(bitboard, 3, i);
+
+        threats(bitboard, free, height, threats);   // Diagonal \
+        threats(bitboard, free, height1, threats);  // Horizontal -
+        threats(bitboard, free, height2, threats);  // Diagonal /
+    }
+
+    /**
+     * Add the threats along the direction of the shift: a free cell at either end of three coins in a
+     * row, or in a gap of one between a coin and a pair.
+     */
+    private void threats(long[] bitboard, long[] free, int shift, long[] threats) {
+        for (int i = 0; i < words; i++)
+            pairs[i] = bitboard[i] & shiftRight(bitboard, shift, i);
+
+        for (int i = 0; i < words; i++) {
+            long freeRight = free[i] & shiftRight(bitboard, shift, i);
+            long freeLeft  = free[i] & shiftLeft(bitboard, shift, i);
+
+            threats[i] |= freeRight & shiftRight(pairs, 2 * shift, i) |
+                          freeLeft  & shiftRight(pairs, shift, i) |
+                          freeRight & shiftLeft(pairs, 2 * shift, i) |
+                          freeLeft  & shiftLeft(pairs, 3 * shift, i);
+        }
+    }
+
+    /**
+     * The number of cells set in both boards.
+     */
+    private int bitCount(long[] bitboard, long[] mask) {
+        int count = 0;
+        for (int i = 0; i < words; i++)
+            count += Long.bitCount(bitboard[i] & mask[i]);
+        return count;
+    }
+
+    /**
+     * Word i of the board shifted right (towards cell 0) by the given number of cells.
+     */
+    private long shiftRight(long[] bitboard, int shift, int i) {
+        int j = i + (shift >>> 6);
+        int bits = shift & 63;
+
+        if (j >= words)
+            return 0L;
+        if (bits == 0 || j + 1 == words)
+            return bitboard[j] >>> bits;
+
+        return bitboard[j] >>> bits | bitboard[j + 1] << 64 - bits;
+    }
+
+    /**
+     * Word i of the board shifted left by the given number of cells. Cells shifted past the board are
+     * left in the last word, so they must be masked.
+     */
+    private long shiftLeft(long[] bitboard, int shift, int i) {
+        int j = i - (shift >>> 6);
+        int bits = shift & 63;
+
+        if (j < 0)
+            return 0L;
+        if (bits == 0 || j == 0)
+            return bitboard[j] << bits;
+
+        return bitboard[j] << bits | bitboard[j - 1] >>> 64 - bits;
+    }
+
+    private static void set(long[] bitboard, int cell) {
+        bitboard[cell >>> 6] |= 1L << cell;
+    }
+
+    private static void clear(long[] bitboard, int cell) {
+        bitboard[cell >>> 6] &= ~(1L << cell);
+    }
+
+    private static boolean get(long[] bitboard, int cell) {
+        return (bitboard[cell >>> 6] >>> cell & 1L) != 0;
+    }
+
+    // endregion
+}
@@ -0,0 +1,10 @@
+/**
+ * GameLogic searching in parallel with young brothers wait on all available cores.
+ * Unlike the lazy SMP search, the move chosen at a given depth is reproducible.
+ */
+public class YoungBrothersGameLogic extends GameLogic {
+
+    public YoungBrothersGameLogic() {
+        super(Runtime.getRuntime().availableProcessors(), Engine.YOUNG_BROTHERS);
+    }
+}